@@ -0,0 +1,213 @@
+package de.adito.nbm.encoding;
+
+import com.google.common.cache.*;
+import de.adito.nbm.encoding.detection.*;
+import org.jetbrains.annotations.*;
+import org.openide.filesystems.*;
+import org.openide.util.RequestProcessor;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.*;
+import java.util.zip.*;
+
+/**
+ * Detected encodings of the entries of local archives (jars, zips). A query for an entry that was not detected yet detects that entry
+ * directly and queues the other entries in the same folder, which are likely to be opened next. A background batch detects a bounded amount
+ * of the queued entries with a single open of the archive, so the archive is not opened once per entry. Nothing else of the archive is read.
+ * The results are kept until the modification date or size of the archive itself changes, entries do not have modification dates of their
+ * own. Only a limited amount of archives and entries per archive are kept
+ */
+final class ArchiveEncodingCache
+{
+
+  private static final Logger LOGGER = Logger.getLogger(ArchiveEncodingCache.class.getName());
+  private static final RequestProcessor PROCESSOR = new RequestProcessor(ArchiveEncodingCache.class.getName(), 1);
+  private static final int MAX_ARCHIVES = 20;
+  private static final int MAX_ENTRIES_PER_ARCHIVE = 2000;
+  private static final int BATCH_SIZE = 32;
+
+  private final Cache<String, _Archive> archives = CacheBuilder.newBuilder().maximumSize(MAX_ARCHIVES).build();
+
+  /**
+   * @param pFileObject file that may be an entry of an archive
+   * @return the detected encoding of the entry (empty optional if none was detected), null if the file is not an entry of a local archive
+   * @throws IOException if the archive cannot be read
+   */
+  @Nullable
+  Optional<Charset> getEncoding(@NotNull FileObject pFileObject) throws IOException
+  {
+    File archiveFile = _getArchiveFile(pFileObject);
+    if (archiveFile == null)
+      return null;
+    String entryName = pFileObject.getPath();
+    _Archive archive = archives.asMap().compute(archiveFile.getPath(), (pPath, pArchive) -> pArchive != null && pArchive.isUpToDate()
+        ? pArchive : new _Archive(archiveFile));
+    Optional<Charset> encoding = archive.encodings.getIfPresent(entryName);
+    if (encoding != null)
+      return encoding;
+    try (ZipFile zipFile = new ZipFile(archiveFile))
+    {
+      ZipEntry entry = zipFile.getEntry(entryName);
+      encoding = entry == null ? Optional.empty() : _detect(zipFile, entry);
+      archive.encodings.put(entryName, encoding);
+      archive.addFolder(zipFile, entryName.substring(0, entryName.lastIndexOf('/') + 1));
+    }
+    archive.scheduleBatch();
+    return encoding;
+  }
+
+  /**
+   * @param pFileObject file that may be an entry of an archive
+   * @return true if the file is an entry of a local archive. Neither the archive is opened nor the entry detected
+   */
+  static boolean isArchiveEntry(@NotNull FileObject pFileObject)
+  {
+    try
+    {
+      return _getArchiveFile(pFileObject) != null;
+    }
+    catch (FileStateInvalidException pE)
+    {
+      return false;
+    }
+  }
+
+  @Nullable
+  private static File _getArchiveFile(@NotNull FileObject pFileObject) throws FileStateInvalidException
+  {
+    FileSystem fileSystem = pFileObject.getFileSystem();
+    if (fileSystem instanceof JarFileSystem)
+      return ((JarFileSystem) fileSystem).getJarFile();
+    if (!FileUtil.isArchiveArtifact(pFileObject))
+      return null;
+    FileObject archive = FileUtil.getArchiveFile(pFileObject);
+    return archive == null ? null : FileUtil.toFile(archive);
+  }
+
+  @NotNull
+  private static Optional<Charset> _detect(@NotNull ZipFile pZipFile, @NotNull ZipEntry pEntry) throws IOException
+  {
+    if (pEntry.isDirectory() || pEntry.getSize() == 0 || BinaryContentFilter.isBinaryName(pEntry.getName()))
+      return Optional.empty();
+    try (InputStream in = pZipFile.getInputStream(pEntry))
+    {
+      return EncodingDetectorChain.detect(in);
+    }
+  }
+
+  /**
+   * Encodings of the entries of a single archive, valid as long as the archive does not change. The entries of the folders that were queried
+   * are queued for the background detection, at most one batch per archive is pending at a time
+   */
+  private static class _Archive
+  {
+    private final File file;
+    private final long lastModified;
+    private final long size;
+    private final Cache<String, Optional<Charset>> encodings = CacheBuilder.newBuilder().maximumSize(MAX_ENTRIES_PER_ARCHIVE).build();
+    private final Set<String> folders = new HashSet<>();
+    private final Deque<String> undetected = new ArrayDeque<>();
+    private final AtomicBoolean batchPending = new AtomicBoolean();
+
+    _Archive(@NotNull File pFile)
+    {
+      file = pFile;
+      lastModified = pFile.lastModified();
+      size = pFile.length();
+    }
+
+    boolean isUpToDate()
+    {
+      return file.lastModified() == lastModified && file.length() == size;
+    }
+
+    /**
+     * Queues the entries of a folder that were not detected yet, in front of the entries of folders queried earlier. The entries of a folder
+     * are looked up only once, while the archive is open anyway
+     *
+     * @param pZipFile the opened archive
+     * @param pFolder  name of the folder in the archive, including the trailing slash. Empty for the root of the archive
+     */
+    synchronized void addFolder(@NotNull ZipFile pZipFile, @NotNull String pFolder)
+    {
+      if (!folders.add(pFolder))
+        return;
+      List<String> names = new ArrayList<>();
+      Enumeration<? extends ZipEntry> entries = pZipFile.entries();
+      while (entries.hasMoreElements() && names.size() < MAX_ENTRIES_PER_ARCHIVE)
+      {
+        ZipEntry entry = entries.nextElement();
+        String name = entry.getName();
+        boolean inFolder = name.startsWith(pFolder) && name.indexOf('/', pFolder.length()) < 0;
+        if (!entry.isDirectory() && inFolder && encodings.getIfPresent(name) == null)
+          names.add(name);
+      }
+      for (int i = names.size() - 1; i >= 0; i--)
+        undetected.addFirst(names.get(i));
+    }
+
+    /**
+     * Starts a background batch, unless one is pending already or all queued entries are detected
+     */
+    void scheduleBatch()
+    {
+      if (_peekUndetected() != null && batchPending.compareAndSet(false, true))
+        PROCESSOR.post(this::_detectBatch);
+    }
+
+    /**
+     * Detects up to {@link #BATCH_SIZE} of the queued entries, the archive is opened once for all of them
+     */
+    private void _detectBatch()
+    {
+      try (ZipFile zipFile = new ZipFile(file))
+      {
+        int detected = 0;
+        String name;
+        while (detected < BATCH_SIZE && isUpToDate() && (name = _pollUndetected()) != null)
+        {
+          ZipEntry entry = zipFile.getEntry(name);
+          if (entry != null)
+          {
+            encodings.put(name, _detect(zipFile, entry));
+            detected++;
+          }
+        }
+      }
+      catch (IOException | RuntimeException pE)
+      {
+        LOGGER.log(Level.INFO, "Could not detect the encodings of " + file, pE);
+      }
+      finally
+      {
+        batchPending.set(false);
+      }
+    }
+
+    /**
+     * @return the next queued entry that was not detected in the meantime, it stays queued. Null if there is none
+     */
+    @Nullable
+    private synchronized String _peekUndetected()
+    {
+      while (!undetected.isEmpty() && encodings.getIfPresent(undetected.peekFirst()) != null)
+        undetected.removeFirst();
+      return undetected.peekFirst();
+    }
+
+    /**
+     * @return the next queued entry that was not detected in the meantime, removed from the queue. Null if there is none
+     */
+    @Nullable
+    private synchronized String _pollUndetected()
+    {
+      String name = _peekUndetected();
+      if (name != null)
+        undetected.removeFirst();
+      return name;
+    }
+  }
+}
@@ -1,19 +1,24 @@
 package de.adito.nbm.encoding;
 
 import com.google.common.cache.*;
-import de.adito.nbm.encoding.options.EncodingOptionsPanel;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import de.adito.nbm.encoding.detection.*;
+import de.adito.nbm.encoding.editorconfig.EditorConfigEncodingResolver;
+import de.adito.nbm.encoding.index.EncodingIndex;
+import de.adito.nbm.encoding.project.DefaultEncodingPolicy;
 import de.adito.nbm.encoding.statusline.StatusLineEncodingProvider;
 import org.jetbrains.annotations.*;
-import org.mozilla.universalchardet.UniversalDetector;
 import org.netbeans.spi.queries.FileEncodingQueryImplementation;
 import org.openide.filesystems.FileObject;
-import org.openide.util.NbPreferences;
+import org.openide.util.*;
 import org.openide.util.lookup.ServiceProvider;
 
+import javax.swing.event.ChangeListener;
 import java.io.*;
 import java.nio.charset.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.BiConsumer;
 
 /**
  * @author m.kaspera, 07.02.2020
@@ -25,12 +30,35 @@ public class CharDetEncodingProvider extends FileEncodingQueryImplementation
   public static final String ENCODING_KEY = "de.adito.plugins.encoding.default.encoding";
   public static final String NO_DEFAULT_ENCODING = "None";
   public static final String DEFAULT_DEFAULT_ENCODING = "UTF-8";
+  /**
+   * attribute that holds the default encoding the encoding attribute of a file was set from
+   */
+  private static final String DEFAULT_ENCODING_ATTRIBUTE = "de.adito.plugins.encoding.default.origin";
+  private static final int BULK_CHUNKS = 4 * Runtime.getRuntime().availableProcessors();
+  private static final RequestProcessor BULK_PROCESSOR = new RequestProcessor(CharDetEncodingProvider.class.getName() + ".bulk",
+                                                                              Runtime.getRuntime().availableProcessors());
 
-  private final Cache<_FileDescription, Optional<Charset>> cache =
+  private final Cache<_FileDescription, _DetectionResult> cache =
       CacheBuilder.newBuilder()
           .expireAfterAccess(15, TimeUnit.MINUTES)
           .maximumSize(50000)
           .build();
+  private final EditorConfigEncodingResolver editorConfigResolver = new EditorConfigEncodingResolver();
+  private final ArchiveEncodingCache archiveEncodingCache = new ArchiveEncodingCache();
+  private final RepositoryEncodingIndexes repositoryEncodingIndexes = new RepositoryEncodingIndexes();
+  private final DefaultEncodingPolicy defaultEncodingPolicy = new DefaultEncodingPolicy();
+  /**
+   * created once the first file is detected, empty if this is not the instance that is registered in the IDE
+   */
+  private volatile Optional<RedetectionScheduler> redetectionScheduler;
+  private final ChangeSupport changeSupport = new ChangeSupport(this);
+
+  public CharDetEncodingProvider()
+  {
+    // the detected encodings do not depend on the default encoding, the attributes of empty files are updated once they are queried again
+    defaultEncodingPolicy.addChangeListener(pProjectDirectory -> changeSupport.fireChange());
+    editorConfigResolver.addChangeListener(pEvent -> changeSupport.fireChange());
+  }
 
   @Nullable
   @Override
@@ -38,67 +66,434 @@ public class CharDetEncodingProvider extends FileEncodingQueryImplementation
   {
     try
     {
-      String defaultEncoding = NbPreferences.forModule(EncodingOptionsPanel.class).get(ENCODING_KEY, DEFAULT_DEFAULT_ENCODING);
-      // If no default encoding is set
-      if (NO_DEFAULT_ENCODING.equals(defaultEncoding) || pFileObject.getSize() > 0)
+      // a charset declared in an .editorconfig is binding, no need to read the file in that case
+      Charset configuredEncoding = editorConfigResolver.getEncoding(pFileObject);
+      if (configuredEncoding != null)
+        return configuredEncoding;
+      return _getEncoding(pFileObject, defaultEncodingPolicy.getDefaultEncoding(pFileObject),
+                          pFileObject.getAttribute(StatusLineEncodingProvider.ENCODING_ATTRIBUTE));
+    }
+    catch (IOException | IllegalCharsetNameException | UnsupportedCharsetException e)
+    {
+      // Wenn das Encoding nicht bestimmt werden kann, soll das eine andere Implementierung liefern.
+      return null;
+    }
+  }
+
+  /**
+   * Determines the encodings of several files at once, with the same result as calling {@link #getEncoding(FileObject)} for each of the files.
+   * The default encodings come from the policy snapshot, files that have to be read are sorted by their folder and detected in parallel
+   *
+   * @param pFileObjects files whose encoding should be determined
+   * @return map of file to encoding, files whose encoding could not be determined are not contained
+   */
+  @NotNull
+  public Map<FileObject, Charset> getEncodings(@NotNull Collection<? extends FileObject> pFileObjects)
+  {
+    return getEncodings(pFileObjects, (pFileObject, pEncoding) -> {});
+  }
+
+  /**
+   * Determines the encodings of several files at once, with the same result as calling {@link #getEncoding(FileObject)} for each of the files.
+   * The default encodings come from the policy snapshot, files that have to be read are sorted by their folder and detected in parallel
+   *
+   * @param pFileObjects    files whose encoding should be determined
+   * @param pResultConsumer called as soon as the encoding of a file is determined, possibly from several threads at once. Not called for files
+   *                        whose encoding could not be determined
+   * @return map of file to encoding, files whose encoding could not be determined are not contained
+   */
+  @NotNull
+  public Map<FileObject, Charset> getEncodings(@NotNull Collection<? extends FileObject> pFileObjects,
+                                               @NotNull BiConsumer<FileObject, Charset> pResultConsumer)
+  {
+    Map<FileObject, Charset> encodings = new ConcurrentHashMap<>();
+    BiConsumer<FileObject, Charset> resultCollector = (pFileObject, pEncoding) -> {
+      if (pEncoding != null)
       {
-        Charset encoding = null;
-        Object fileAttributesObj = pFileObject.getAttribute(StatusLineEncodingProvider.ENCODING_ATTRIBUTE);
-        if (fileAttributesObj != null)
-          encoding = Charset.forName((String) fileAttributesObj);
-        Charset uChardetEncoding = cache.get(new _FileDescription(pFileObject), () -> _getEncoding(pFileObject)).orElse(null);
-        if (encoding != null && uChardetEncoding != null)
-        {
-          if (!encoding.equals(uChardetEncoding))
-            encoding = uChardetEncoding;
-        }
-        else if (uChardetEncoding != null)
-        {
-          encoding = uChardetEncoding;
-        }
-        return encoding;
+        encodings.put(pFileObject, pEncoding);
+        pResultConsumer.accept(pFileObject, pEncoding);
+      }
+    };
+    List<_PendingDetection> pending = new ArrayList<>();
+    for (FileObject fileObject : pFileObjects)
+    {
+      Charset configuredEncoding = editorConfigResolver.getEncoding(fileObject);
+      if (configuredEncoding != null)
+      {
+        resultCollector.accept(fileObject, configuredEncoding);
+        continue;
       }
+      String defaultEncoding = defaultEncodingPolicy.getDefaultEncoding(fileObject);
+      Object attribute = fileObject.getAttribute(StatusLineEncodingProvider.ENCODING_ATTRIBUTE);
+      if (_needsDetection(fileObject, defaultEncoding) && cache.getIfPresent(new _FileDescription(fileObject)) == null)
+        pending.add(new _PendingDetection(fileObject, defaultEncoding, attribute));
       else
+        resultCollector.accept(fileObject, _getEncodingQuietly(fileObject, defaultEncoding, attribute));
+    }
+    if (pending.isEmpty())
+      return encodings;
+
+    // files of the same folder are read one after another by the same thread, which is friendlier to the disk than random order
+    pending.sort(Comparator.comparing((_PendingDetection pDetection) -> pDetection.folderPath)
+                     .thenComparing(pDetection -> pDetection.fileObject.getNameExt()));
+    int chunkSize = Math.max(1, (pending.size() + BULK_CHUNKS - 1) / BULK_CHUNKS);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int chunkStart = 0; chunkStart < pending.size(); chunkStart += chunkSize)
+    {
+      List<_PendingDetection> chunk = pending.subList(chunkStart, Math.min(chunkStart + chunkSize, pending.size()));
+      futures.add(BULK_PROCESSOR.submit(() -> {
+        for (_PendingDetection detection : chunk)
+          resultCollector.accept(detection.fileObject, _getEncodingQuietly(detection.fileObject, detection.defaultEncoding, detection.attribute));
+      }));
+    }
+    try
+    {
+      for (Future<?> future : futures)
+        future.get();
+    }
+    catch (InterruptedException pE)
+    {
+      futures.forEach(pFuture -> pFuture.cancel(true));
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException pE)
+    {
+      throw new RuntimeException(pE.getCause());
+    }
+    return encodings;
+  }
+
+  /**
+   * @param pFileObject      FileObject
+   * @param pDefaultEncoding the default encoding set in the options
+   * @param pAttribute       value of the encoding attribute of the file
+   * @return the encoding of the file, null if it cannot be determined
+   */
+  @Nullable
+  private Charset _getEncodingQuietly(@NotNull FileObject pFileObject, @NotNull String pDefaultEncoding, @Nullable Object pAttribute)
+  {
+    try
+    {
+      return _getEncoding(pFileObject, pDefaultEncoding, pAttribute);
+    }
+    catch (IOException | IllegalCharsetNameException | UnsupportedCharsetException e)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Determines the encoding of a file that is not covered by an .editorconfig
+   *
+   * @param pFileObject      FileObject
+   * @param pDefaultEncoding the default encoding set in the options
+   * @param pAttribute       value of the encoding attribute of the file
+   * @return the encoding of the file, null if it cannot be determined
+   * @throws IOException if the default encoding cannot be stored in the file attribute
+   */
+  @Nullable
+  private Charset _getEncoding(@NotNull FileObject pFileObject, @NotNull String pDefaultEncoding, @Nullable Object pAttribute) throws IOException
+  {
+    if (_needsDetection(pFileObject, pDefaultEncoding))
+    {
+      Charset uChardetEncoding = getDetectedEncoding(pFileObject);
+      if (uChardetEncoding != null)
+        return uChardetEncoding;
+      if (pAttribute != null && NO_DEFAULT_ENCODING.equals(pDefaultEncoding) && _isSetByDefault(pFileObject, pAttribute))
       {
-        Object fileAttributesObj = pFileObject.getAttribute(StatusLineEncodingProvider.ENCODING_ATTRIBUTE);
-        if (fileAttributesObj == null)
-        {
-          pFileObject.setAttribute(StatusLineEncodingProvider.ENCODING_ATTRIBUTE, defaultEncoding);
-          return Charset.forName(defaultEncoding);
-        }
-        return Charset.forName((String) fileAttributesObj);
+        // the default encoding that was stored for the file does not apply anymore
+        _setDefaultAttribute(pFileObject, null);
+        return null;
       }
+      return pAttribute == null ? null : Charset.forName((String) pAttribute);
     }
-    catch (ExecutionException | IOException | IllegalCharsetNameException | UnsupportedCharsetException e)
+    else
+    {
+      // the attribute of an empty file follows the default encoding, unless someone chose another encoding for the file
+      if (pAttribute == null || (!pAttribute.equals(pDefaultEncoding) && _isSetByDefault(pFileObject, pAttribute)))
+      {
+        _setDefaultAttribute(pFileObject, pDefaultEncoding);
+        return Charset.forName(pDefaultEncoding);
+      }
+      return Charset.forName((String) pAttribute);
+    }
+  }
+
+  /**
+   * @param pFileObject FileObject
+   * @param pAttribute  value of the encoding attribute of the file
+   * @return true if the encoding attribute was set from a default encoding and not changed since
+   */
+  private static boolean _isSetByDefault(@NotNull FileObject pFileObject, @NotNull Object pAttribute)
+  {
+    return pAttribute.equals(pFileObject.getAttribute(DEFAULT_ENCODING_ATTRIBUTE));
+  }
+
+  /**
+   * Stores the default encoding as encoding attribute of the file and remembers that it was not chosen by the user
+   *
+   * @param pFileObject      FileObject
+   * @param pDefaultEncoding the default encoding, null to remove the attribute
+   * @throws IOException if the attributes cannot be stored
+   */
+  private static void _setDefaultAttribute(@NotNull FileObject pFileObject, @Nullable String pDefaultEncoding) throws IOException
+  {
+    pFileObject.setAttribute(StatusLineEncodingProvider.ENCODING_ATTRIBUTE, pDefaultEncoding);
+    pFileObject.setAttribute(DEFAULT_ENCODING_ATTRIBUTE, pDefaultEncoding);
+  }
+
+  /**
+   * @param pListener notified if the encodings of files may have changed without the files themselves changing, that is if a default
+   *                  encoding or an .editorconfig file changed
+   */
+  public void addChangeListener(@NotNull ChangeListener pListener)
+  {
+    changeSupport.addChangeListener(pListener);
+  }
+
+  /**
+   * @return true if the content of the file has to be analysed, false if the file is empty and the default encoding applies
+   */
+  private static boolean _needsDetection(@NotNull FileObject pFileObject, @NotNull String pDefaultEncoding)
+  {
+    return NO_DEFAULT_ENCODING.equals(pDefaultEncoding) || pFileObject.getSize() > 0;
+  }
+
+  /**
+   * Get the encoding detected from the contents of the file, without considering the file attribute, .editorconfig files or the default
+   * encoding. Uses the same cache as {@link #getEncoding(FileObject)}, entries of archives are cached per archive. Files that are part of an
+   * {@link EncodingIndex} of the repository and did not change since the index was written are not detected at all
+   *
+   * @param pFileObject FileObject
+   * @return the detected Charset, null if no Charset is detected/the confidence is too low or the file cannot be read
+   */
+  @Nullable
+  public Charset getDetectedEncoding(@NotNull FileObject pFileObject)
+  {
+    try
+    {
+      Optional<Charset> archiveEncoding = archiveEncodingCache.getEncoding(pFileObject);
+      if (archiveEncoding != null)
+        return archiveEncoding.orElse(null);
+      return _getDetectionResult(pFileObject).encoding.orElse(null);
+    }
+    catch (IOException | ExecutionException | UncheckedExecutionException pE)
     {
-      // Wenn das Encoding nicht bestimmt werden kann, soll das eine andere Implementierung liefern.
       return null;
     }
   }
 
   /**
-   * Get the encoding of the fileObject by using UCharDet
+   * Get the line separators found while detecting the encoding of the file. The file is never read for them, so they are only known for
+   * files whose encoding was detected since they changed. If the detection decided early, only the examined head of the file is counted,
+   * see {@link LineSeparators#isComplete()}
    *
    * @param pFileObject FileObject
-   * @return Optional of the Charset, empty optional if no Charset is detected/the confidence is too low
+   * @return the line separators, null if no detection pass read the file (e.g. the encoding is configured via .editorconfig or the file
+   * attribute), for binary files, entries of archives and files whose encoding does not store line separators as single bytes (e.g. UTF-16)
+   */
+  @Nullable
+  public LineSeparators getLineSeparators(@NotNull FileObject pFileObject)
+  {
+    if (ArchiveEncodingCache.isArchiveEntry(pFileObject))
+      return null;
+    _DetectionResult result = cache.getIfPresent(new _FileDescription(pFileObject));
+    return result == null ? null : result.lineSeparators;
+  }
+
+  /**
+   * @param pFileObject FileObject
+   * @return true if the file was recognized as binary by its name or contents, such files have no detected encoding. Entries of archives
+   * are never reported as binary
+   */
+  public boolean isBinary(@NotNull FileObject pFileObject)
+  {
+    if (ArchiveEncodingCache.isArchiveEntry(pFileObject))
+      return false;
+    try
+    {
+      return _getDetectionResult(pFileObject).binary;
+    }
+    catch (ExecutionException | UncheckedExecutionException pE)
+    {
+      return false;
+    }
+  }
+
+  @NotNull
+  private _DetectionResult _getDetectionResult(@NotNull FileObject pFileObject) throws ExecutionException
+  {
+    return cache.get(new _FileDescription(pFileObject), () -> _detectEncoding(pFileObject));
+  }
+
+  /**
+   * Get the encoding {@link #getEncoding(FileObject)} would return if the encoding attribute of the file had the given value, without
+   * changing the attribute
+   *
+   * @param pFileObject FileObject
+   * @param pAttribute  assumed value of the encoding attribute
+   * @return the Charset the file would be read with
+   * @throws IllegalCharsetNameException if the attribute is no valid charset name
+   * @throws UnsupportedCharsetException if the attribute names a charset that is not supported
+   */
+  @NotNull
+  Charset getEncoding(@NotNull FileObject pFileObject, @NotNull String pAttribute)
+  {
+    Charset configuredEncoding = editorConfigResolver.getEncoding(pFileObject);
+    if (configuredEncoding != null)
+      return configuredEncoding;
+    Charset detectedEncoding = _needsDetection(pFileObject, defaultEncodingPolicy.getDefaultEncoding(pFileObject)) ?
+        getDetectedEncoding(pFileObject) : null;
+    return detectedEncoding == null ? Charset.forName(pAttribute) : detectedEncoding;
+  }
+
+  /**
+   * Get the encoding the file is supposed to have, that is the charset declared in an .editorconfig file or the default encoding
+   *
+   * @param pFileObject FileObject
+   * @return the configured Charset, null if neither an .editorconfig nor the default encoding apply
+   */
+  @Nullable
+  public Charset getConfiguredEncoding(@NotNull FileObject pFileObject)
+  {
+    Charset configuredEncoding = editorConfigResolver.getEncoding(pFileObject);
+    if (configuredEncoding != null)
+      return configuredEncoding;
+    String defaultEncoding = defaultEncodingPolicy.getDefaultEncoding(pFileObject);
+    if (NO_DEFAULT_ENCODING.equals(defaultEncoding) || !Charset.isSupported(defaultEncoding))
+      return null;
+    return Charset.forName(defaultEncoding);
+  }
+
+  /**
+   * Only the instance that is registered in the IDE re-detects changed files, other instances (e.g. of the command line tools) do not
+   * listen on all files
+   *
+   * @return the scheduler that re-detects changed files
+   */
+  @NotNull
+  private Optional<RedetectionScheduler> _getRedetectionScheduler()
+  {
+    Optional<RedetectionScheduler> scheduler = redetectionScheduler;
+    if (scheduler == null)
+    {
+      synchronized (this)
+      {
+        scheduler = redetectionScheduler;
+        if (scheduler == null)
+        {
+          boolean registered = Lookup.getDefault().lookupAll(FileEncodingQueryImplementation.class).stream().anyMatch(pImpl -> pImpl == this);
+          scheduler = registered ? Optional.of(new RedetectionScheduler(this::getDetectedEncoding)) : Optional.empty();
+          scheduler.ifPresent(RedetectionScheduler::start);
+          redetectionScheduler = scheduler;
+        }
+      }
+    }
+    return scheduler;
+  }
+
+  /**
+   * Get the encoding of the fileObject by using the registered detection engines. The line separators are counted in the same pass
+   *
+   * @param pFileObject FileObject
+   * @return the detected Charset and line separators, the Charset is empty if no Charset is detected/the confidence is too low
    * @throws IOException IOException if e.g. the file cannot be read
    */
-  private Optional<Charset> _getEncoding(FileObject pFileObject) throws IOException
+  @NotNull
+  private _DetectionResult _detectEncoding(FileObject pFileObject) throws IOException
   {
-    try (InputStream in = new BufferedInputStream(pFileObject.getInputStream()))
+    _getRedetectionScheduler().ifPresent(pScheduler -> pScheduler.detected(pFileObject));
+    // binaries are cached like any other file, so they are not even looked at again until they change
+    if (BinaryContentFilter.isBinaryName(pFileObject.getNameExt()))
+      return _DetectionResult.BINARY;
+    // the path and size of an index entry are checked without reading the file, files too large to be indexed are not looked up at all
+    long size = pFileObject.getSize();
+    EncodingIndex.Entry indexEntry = size <= EncodingIndex.MAX_FILE_SIZE ? repositoryEncodingIndexes.find(pFileObject) : null;
+    if (indexEntry != null)
     {
-      UniversalDetector detector = new UniversalDetector(null);
-      byte[] buf = new byte[4096];
-      int nread;
-      while ((nread = in.read(buf)) > 0 && !detector.isDone())
+      // the file is hashed in chunks and the line separators are counted on the way, an outdated entry is detected like any other file
+      try (LineSeparatorCounter in = new LineSeparatorCounter(FileChannelInputStream.open(pFileObject), size))
       {
-        detector.handleData(buf, 0, nread);
+        if (indexEntry.matches(EncodingIndex.hashContents(in)))
+          return _toResult(new EncodingDetectorChain.Result(indexEntry.getEncoding(), false), in);
       }
-      detector.dataEnd();
-      String detectedCharset = detector.getDetectedCharset();
-      if (detectedCharset != null)
-        return Optional.of(Charset.forName(detectedCharset));
-      return Optional.empty();
+    }
+    try (LineSeparatorCounter in = new LineSeparatorCounter(FileChannelInputStream.open(pFileObject), size))
+    {
+      return _toResult(EncodingDetectorChain.analyze(in), in);
+    }
+  }
+
+  /**
+   * @param pResult  result of the detection engines
+   * @param pCounter stream the examined bytes of the file were read through
+   * @return the result to cache
+   */
+  @NotNull
+  private static _DetectionResult _toResult(@NotNull EncodingDetectorChain.Result pResult, @NotNull LineSeparatorCounter pCounter)
+  {
+    if (pResult.isBinary())
+      return _DetectionResult.BINARY;
+    Optional<Charset> encoding = pResult.getEncoding();
+    // in e.g. UTF-16 a CR or LF is not a single byte, counting the bytes would be meaningless
+    boolean singleByteSeparators = encoding.map(CharDetEncodingProvider::_hasSingleByteSeparators).orElse(true);
+    return new _DetectionResult(encoding, singleByteSeparators ? pCounter.getLineSeparators() : null, false);
+  }
+
+  private static boolean _hasSingleByteSeparators(@NotNull Charset pCharset)
+  {
+    return pCharset.canEncode() && Arrays.equals("\r\n".getBytes(pCharset), new byte[]{'\r', '\n'});
+  }
+
+  /**
+   * Feeds the contents of the given stream to the registered detection engines until one of them decided or the stream is exhausted
+   *
+   * @param pInputStream stream to read from, is not closed by this method
+   * @return Optional of the Charset, empty optional if no Charset is detected/the confidence is too low
+   * @throws IOException if the stream cannot be read
+   */
+  @NotNull
+  static Optional<Charset> detectEncoding(@NotNull InputStream pInputStream) throws IOException
+  {
+    return EncodingDetectorChain.detect(pInputStream);
+  }
+
+  /**
+   * Cached result of reading a file, the detected encoding and the line separators counted in the same pass. Binary files have neither
+   */
+  private static final class _DetectionResult
+  {
+    private static final _DetectionResult BINARY = new _DetectionResult(Optional.empty(), null, true);
+
+    private final Optional<Charset> encoding;
+    private final LineSeparators lineSeparators;
+    private final boolean binary;
+
+    private _DetectionResult(@NotNull Optional<Charset> pEncoding, @Nullable LineSeparators pLineSeparators, boolean pBinary)
+    {
+      encoding = pEncoding;
+      lineSeparators = pLineSeparators;
+      binary = pBinary;
+    }
+  }
+
+  /**
+   * File of a bulk query whose content has to be read
+   */
+  private static final class _PendingDetection
+  {
+    private final FileObject fileObject;
+    private final String defaultEncoding;
+    private final Object attribute;
+    private final String folderPath;
+
+    private _PendingDetection(@NotNull FileObject pFileObject, @NotNull String pDefaultEncoding, @Nullable Object pAttribute)
+    {
+      fileObject = pFileObject;
+      defaultEncoding = pDefaultEncoding;
+      attribute = pAttribute;
+      FileObject parent = pFileObject.getParent();
+      folderPath = parent == null ? "" : parent.getPath();
     }
   }
 
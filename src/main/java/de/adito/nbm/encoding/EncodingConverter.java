@@ -0,0 +1,102 @@
+package de.adito.nbm.encoding;
+
+import de.adito.nbm.encoding.statusline.StatusLineEncodingProvider;
+import org.jetbrains.annotations.NotNull;
+import org.netbeans.api.queries.FileEncodingQuery;
+import org.openide.filesystems.FileObject;
+import org.openide.util.Lookup;
+
+import java.io.*;
+import java.nio.charset.*;
+
+/**
+ * Rewrites the contents of a file in another encoding
+ *
+ * @see StatusLineEncodingProvider#ENCODING_ATTRIBUTE
+ */
+public final class EncodingConverter
+{
+
+  private EncodingConverter()
+  {
+  }
+
+  /**
+   * Reads the contents of the file in its current encoding, writes the contents in the given encoding to the file and stores the new encoding
+   * in the file attribute. Modified documents are not saved by this method, that has to be done beforehand
+   *
+   * @param pFileObject file to convert
+   * @param pEncoding   name of the encoding that should be used to write the file contents to disk
+   * @throws IOException if the file cannot be read or written, or is not valid in its current encoding. The file and its attribute are
+   *                     left untouched in the latter case
+   */
+  public static void convert(@NotNull FileObject pFileObject, @NotNull String pEncoding) throws IOException
+  {
+    _convert(pFileObject, _getCurrentEncoding(pFileObject, pEncoding), pEncoding);
+  }
+
+  /**
+   * Reads the contents of the file in the given current encoding, writes the contents in the given encoding to the file and stores the new
+   * encoding in the file attribute. Modified documents are not saved by this method, that has to be done beforehand
+   *
+   * @param pFileObject      file to convert
+   * @param pCurrentEncoding encoding the file is currently written in
+   * @param pEncoding        name of the encoding that should be used to write the file contents to disk
+   * @throws IOException if the file cannot be read or written, or is not valid in its current encoding. The file and its attribute are
+   *                     left untouched in the latter case
+   */
+  public static void convert(@NotNull FileObject pFileObject, @NotNull Charset pCurrentEncoding, @NotNull String pEncoding) throws IOException
+  {
+    _convert(pFileObject, pCurrentEncoding, pEncoding);
+  }
+
+  /**
+   * The encoding the file is read with once its attribute names the new encoding. The attribute is not touched, so nobody sees the new
+   * encoding before the file was converted. Files without a detected encoding (e.g. pure ASCII) are read in the new encoding, like the IDE
+   * would read them with the new attribute
+   *
+   * @param pFileObject file to convert
+   * @param pEncoding   name of the encoding the file is converted to
+   * @return the encoding the file is currently written in
+   */
+  @NotNull
+  private static Charset _getCurrentEncoding(@NotNull FileObject pFileObject, @NotNull String pEncoding)
+  {
+    CharDetEncodingProvider encodingProvider = Lookup.getDefault().lookup(CharDetEncodingProvider.class);
+    if (encodingProvider == null)
+      return FileEncodingQuery.getEncoding(pFileObject);
+    return encodingProvider.getEncoding(pFileObject, pEncoding);
+  }
+
+  /**
+   * Validates the file once, then reads it in its current encoding, stores the new encoding in the attribute and writes the file
+   */
+  private static void _convert(@NotNull FileObject pFileObject, @NotNull Charset pCurrentEncoding, @NotNull String pEncoding)
+      throws IOException
+  {
+    _verifyDecodable(pFileObject, pCurrentEncoding);
+    byte[] fileContents = pFileObject.asBytes();
+    pFileObject.setAttribute(StatusLineEncodingProvider.ENCODING_ATTRIBUTE, pEncoding);
+    try (OutputStream outputStream = pFileObject.getOutputStream())
+    {
+      byte[] changedEncodingBytes = new String(fileContents, pCurrentEncoding).getBytes(pEncoding);
+      outputStream.write(changedEncodingBytes);
+    }
+  }
+
+  /**
+   * Refuses files that claim to be UTF-8 but contain invalid sequences, these would be replaced by replacement characters on conversion
+   *
+   * @param pFileObject      file to convert
+   * @param pCurrentEncoding encoding the file is currently written in
+   * @throws IOException if the file cannot be read or is not valid UTF-8
+   */
+  private static void _verifyDecodable(@NotNull FileObject pFileObject, @NotNull Charset pCurrentEncoding) throws IOException
+  {
+    if (!StandardCharsets.UTF_8.equals(pCurrentEncoding))
+      return;
+    long invalidOffset = Utf8Validator.findFirstInvalidOffset(pFileObject);
+    if (invalidOffset != Utf8Validator.VALID)
+      throw new IOException(pFileObject.getNameExt() + " is not valid UTF-8 at byte " + invalidOffset + ", converting it would lose data");
+  }
+}
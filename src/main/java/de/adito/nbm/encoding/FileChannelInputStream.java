@@ -0,0 +1,95 @@
+package de.adito.nbm.encoding;
+
+import de.adito.nbm.encoding.detection.EncodingDetectorChain;
+import org.jetbrains.annotations.NotNull;
+import org.openide.filesystems.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * Reads a file on the local disk through a FileChannel. Every read goes through a direct buffer of the size of a detection block, one per
+ * thread and reused for all streams of that thread, so neither the JDK copies through its temporary buffers nor a buffer is allocated per
+ * file. The stream does not buffer anything between two reads, so several streams may be open in the same thread, and no more than the
+ * requested bytes are read
+ */
+final class FileChannelInputStream extends InputStream
+{
+
+  static final int BUFFER_SIZE = EncodingDetectorChain.BLOCK_SIZE;
+  private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+  private final FileChannel channel;
+
+  /**
+   * @param pPath file to read
+   * @throws IOException if the file cannot be opened
+   */
+  FileChannelInputStream(@NotNull Path pPath) throws IOException
+  {
+    channel = FileChannel.open(pPath, StandardOpenOption.READ);
+  }
+
+  /**
+   * Opens local files through a FileChannel, files of other filesystems (e.g. archives) are read through their streams
+   *
+   * @param pFileObject file to read
+   * @return stream over the contents of the file
+   * @throws IOException if the file cannot be opened
+   */
+  @NotNull
+  static InputStream open(@NotNull FileObject pFileObject) throws IOException
+  {
+    File file = FileUtil.toFile(pFileObject);
+    if (file == null)
+      return pFileObject.getInputStream();
+    return new FileChannelInputStream(file.toPath());
+  }
+
+  @Override
+  public int read() throws IOException
+  {
+    byte[] single = new byte[1];
+    return read(single, 0, 1) <= 0 ? -1 : single[0] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] pBuffer, int pOffset, int pLength) throws IOException
+  {
+    if (pLength == 0)
+      return 0;
+    ByteBuffer buffer = BUFFERS.get();
+    buffer.clear().limit(Math.min(pLength, BUFFER_SIZE));
+    int read = 0;
+    while (read == 0)
+      read = channel.read(buffer);
+    if (read < 0)
+      return -1;
+    buffer.flip();
+    buffer.get(pBuffer, pOffset, read);
+    return read;
+  }
+
+  @Override
+  public long skip(long pCount) throws IOException
+  {
+    long position = channel.position();
+    long skipped = Math.max(0, Math.min(pCount, channel.size() - position));
+    channel.position(position + skipped);
+    return skipped;
+  }
+
+  @Override
+  public int available() throws IOException
+  {
+    return (int) Math.min(Integer.MAX_VALUE, Math.max(0, channel.size() - channel.position()));
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    channel.close();
+  }
+}
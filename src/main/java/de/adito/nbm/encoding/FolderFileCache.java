@@ -0,0 +1,236 @@
+package de.adito.nbm.encoding;
+
+import com.google.common.cache.*;
+import org.jetbrains.annotations.*;
+import org.netbeans.api.project.ProjectManager;
+import org.netbeans.spi.project.ProjectManagerImplementation;
+import org.openide.filesystems.*;
+import org.openide.util.*;
+
+import javax.swing.event.ChangeListener;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Predicate;
+import java.util.logging.*;
+
+/**
+ * Caches the parsed contents of a file with a fixed name (e.g. .editorconfig) per folder, for lookups that walk from the folder of a file up
+ * to its parents. A walk ends at the root of a repository (a folder that contains .git, .hg or .svn) or of a project, so only the folders up
+ * to there are cached and listened on. The folders are keyed by their FileObject, folders of different file systems with the same path
+ * (e.g. the roots of archives) do not share an entry. The entry of a folder is dropped as soon as the file of the folder is created,
+ * changed, renamed or deleted
+ *
+ * @param <T> parsed contents of the file
+ */
+public final class FolderFileCache<T>
+{
+
+  private static final Logger LOGGER = Logger.getLogger(FolderFileCache.class.getName());
+  private static final Set<String> REPOSITORY_MARKERS = new HashSet<>(Arrays.asList(".git", ".hg", ".svn"));
+
+  /**
+   * Parses the file of a folder
+   *
+   * @param <T> parsed contents of the file
+   */
+  public interface ILoader<T>
+  {
+    /**
+     * @param pFolder folder the file is located in
+     * @param pFile   the file to parse
+     * @return the parsed contents, null if the file does not contain anything relevant
+     * @throws IOException if the file cannot be read or parsed, the folder is treated as not having the file then
+     */
+    @Nullable
+    T load(@NotNull FileObject pFolder, @NotNull FileObject pFile) throws IOException;
+  }
+
+  private final String fileName;
+  private final ILoader<T> loader;
+  private final boolean projectsAvailable;
+  private final ChangeSupport changeSupport = new ChangeSupport(this);
+  private final FileChangeListener folderListener = new _FolderListener();
+  private final Cache<FileObject, _Entry<T>> folders;
+
+  /**
+   * @param pFileName    name of the file in the folders
+   * @param pMaximumSize maximal amount of cached folders
+   * @param pLoader      parses the file of a folder
+   */
+  public FolderFileCache(@NotNull String pFileName, int pMaximumSize, @NotNull ILoader<T> pLoader)
+  {
+    fileName = pFileName;
+    loader = pLoader;
+    // outside of the IDE (e.g. in tests) there is no project infrastructure, only repository roots end a walk then
+    projectsAvailable = Lookup.getDefault().lookup(ProjectManagerImplementation.class) != null;
+    folders = CacheBuilder.newBuilder()
+        .maximumSize(pMaximumSize)
+        .removalListener((RemovalListener<FileObject, _Entry<T>>) pNotification -> {
+          FileObject folder = pNotification.getKey();
+          if (folder != null)
+            folder.removeFileChangeListener(folderListener);
+        })
+        .build();
+  }
+
+  /**
+   * @param pListener notified after the file of a cached folder was created, changed, renamed or deleted
+   */
+  public void addChangeListener(@NotNull ChangeListener pListener)
+  {
+    changeSupport.addChangeListener(pListener);
+  }
+
+  /**
+   * @param pFileObject file whose folders should be looked at
+   * @param pStop       true for a value after which the walk ends, e.g. an .editorconfig that is marked as root
+   * @return the values of the folder of the file and its parents up to the repository or project root, the closest first
+   */
+  @NotNull
+  public List<T> getValues(@NotNull FileObject pFileObject, @NotNull Predicate<T> pStop)
+  {
+    List<T> values = new ArrayList<>();
+    FileObject folder = pFileObject.getParent();
+    while (folder != null)
+    {
+      _Entry<T> entry = _getEntry(folder);
+      if (entry == null)
+        break;
+      if (entry.value != null)
+      {
+        values.add(entry.value);
+        if (pStop.test(entry.value))
+          break;
+      }
+      if (entry.boundary)
+        break;
+      folder = folder.getParent();
+    }
+    return values;
+  }
+
+  @Nullable
+  private _Entry<T> _getEntry(@NotNull FileObject pFolder)
+  {
+    try
+    {
+      return folders.get(pFolder, () -> _load(pFolder));
+    }
+    catch (ExecutionException pE)
+    {
+      return null;
+    }
+  }
+
+  @NotNull
+  private _Entry<T> _load(@NotNull FileObject pFolder)
+  {
+    pFolder.addFileChangeListener(folderListener);
+    boolean boundary = _isBoundary(pFolder);
+    FileObject file = pFolder.getFileObject(fileName);
+    if (file == null || !file.isData())
+      return new _Entry<>(null, boundary);
+    try
+    {
+      return new _Entry<>(loader.load(pFolder, file), boundary);
+    }
+    catch (IOException pE)
+    {
+      LOGGER.log(Level.INFO, "Ignoring " + file.getPath(), pE);
+      return new _Entry<>(null, boundary);
+    }
+  }
+
+  private boolean _isBoundary(@NotNull FileObject pFolder)
+  {
+    for (String marker : REPOSITORY_MARKERS)
+    {
+      if (pFolder.getFileObject(marker) != null)
+        return true;
+    }
+    return projectsAvailable && ProjectManager.getDefault().isProject(pFolder);
+  }
+
+  /**
+   * Drops the entry of the folder if the given child is the cached file or marks the folder as repository root
+   */
+  private void _childChanged(@NotNull FileObject pChild)
+  {
+    String name = pChild.getNameExt();
+    FileObject parent = pChild.getParent();
+    if (parent != null && (fileName.equals(name) || REPOSITORY_MARKERS.contains(name)))
+      _invalidate(pFolder -> pFolder.equals(parent));
+  }
+
+  private void _invalidate(@NotNull Predicate<FileObject> pFolders)
+  {
+    if (folders.asMap().keySet().removeIf(pFolders))
+      changeSupport.fireChange();
+  }
+
+  /**
+   * Cache entry of a folder
+   */
+  private static final class _Entry<T>
+  {
+    private final T value;
+    private final boolean boundary;
+
+    private _Entry(@Nullable T pValue, boolean pBoundary)
+    {
+      value = pValue;
+      boundary = pBoundary;
+    }
+  }
+
+  /**
+   * Listens on all cached folders for changes of their children
+   */
+  private class _FolderListener extends FileChangeAdapter
+  {
+    @Override
+    public void fileDataCreated(FileEvent fe)
+    {
+      _childChanged(fe.getFile());
+    }
+
+    @Override
+    public void fileFolderCreated(FileEvent fe)
+    {
+      _childChanged(fe.getFile());
+    }
+
+    @Override
+    public void fileChanged(FileEvent fe)
+    {
+      _childChanged(fe.getFile());
+    }
+
+    @Override
+    public void fileDeleted(FileEvent fe)
+    {
+      if (fe.getFile().isFolder())
+        _invalidate(pFolder -> !pFolder.isValid());
+      _childChanged(fe.getFile());
+    }
+
+    @Override
+    public void fileRenamed(FileRenameEvent fe)
+    {
+      FileObject renamed = fe.getFile();
+      if (renamed.isFolder())
+      {
+        // the parsed files may refer to the old path of the folder
+        _invalidate(pFolder -> pFolder.equals(renamed) || FileUtil.isParentOf(renamed, pFolder));
+      }
+      else
+      {
+        // the file may have been renamed from or to the cached name, renames are rare enough to not bother checking the old name
+        FileObject parent = renamed.getParent();
+        if (parent != null)
+          _invalidate(pFolder -> pFolder.equals(parent));
+      }
+    }
+  }
+}
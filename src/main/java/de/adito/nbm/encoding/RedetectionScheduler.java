@@ -0,0 +1,344 @@
+package de.adito.nbm.encoding;
+
+import com.google.common.cache.*;
+import org.jetbrains.annotations.*;
+import org.netbeans.api.project.Project;
+import org.netbeans.api.project.ui.OpenProjects;
+import org.openide.filesystems.*;
+import org.openide.util.*;
+import org.openide.windows.TopComponent;
+
+import javax.swing.SwingUtilities;
+import java.beans.*;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Re-detects the encoding of files that were detected before and changed afterwards, e.g. by a VCS checkout or branch switch. A branch switch
+ * may also delete and re-create a file or rename it, so these files are re-detected as well. Changes the IDE made itself (e.g. saving an
+ * editor) are not re-detected, the IDE wrote them with the encoding it already knows. Files in
+ * visible editors are re-detected first, followed by files in open editors and files of open projects. Everything else is re-detected in the
+ * background with a pause after each file, so a storm of changes does not keep the disk busy.
+ * <p>
+ * The scheduler only warms the cache, queries for the encoding of a file never wait for the queue
+ */
+final class RedetectionScheduler
+{
+
+  /**
+   * Order in which queued files are re-detected
+   */
+  enum Priority
+  {
+    VISIBLE_EDITOR, OPEN_EDITOR, OPEN_PROJECT, BACKGROUND
+  }
+
+  private static final int COALESCE_DELAY_MS = 300;
+  private static final long BACKGROUND_PAUSE_MS = 5;
+
+  private final Consumer<FileObject> detector;
+  private final RequestProcessor.Task task;
+  private final Cache<String, Boolean> detectedPaths = CacheBuilder.newBuilder().maximumSize(50000).build();
+  /**
+   * one queue per priority, guarded by the lock of the queues list. The maps coalesce multiple changes of the same file
+   */
+  private final List<LinkedHashMap<String, FileObject>> queues = new ArrayList<>();
+  private final FileChangeListener fileChangeListener = new _FileChangeListener();
+  private final PropertyChangeListener editorListener = pEvent -> _updateEditors();
+  private final PropertyChangeListener openProjectsListener = pEvent -> {
+    if (OpenProjects.PROPERTY_OPEN_PROJECTS.equals(pEvent.getPropertyName()))
+      _updateOpenProjects();
+  };
+  private volatile Set<String> visibleEditorPaths = Collections.emptySet();
+  private volatile Set<String> openEditorPaths = Collections.emptySet();
+  private volatile List<String> openProjectPaths = Collections.emptyList();
+  private boolean scheduled;
+
+  /**
+   * @param pDetector detects the encoding of a file and stores the result in the cache
+   */
+  RedetectionScheduler(@NotNull Consumer<FileObject> pDetector)
+  {
+    this(pDetector, new RequestProcessor(RedetectionScheduler.class.getName(), 1, false, false));
+  }
+
+  /**
+   * @param pDetector  detects the encoding of a file and stores the result in the cache
+   * @param pProcessor runs the re-detections, e.g. a processor of a test that decides when the queues may be processed
+   */
+  RedetectionScheduler(@NotNull Consumer<FileObject> pDetector, @NotNull RequestProcessor pProcessor)
+  {
+    detector = pDetector;
+    for (int i = 0; i < Priority.values().length; i++)
+      queues.add(new LinkedHashMap<>());
+    task = pProcessor.create(this::_process);
+    task.setPriority(Thread.MIN_PRIORITY);
+  }
+
+  /**
+   * starts listening for changed files, open editors and open projects
+   */
+  void start()
+  {
+    FileUtil.addFileChangeListener(WeakListeners.create(FileChangeListener.class, fileChangeListener, null));
+    TopComponent.Registry registry = TopComponent.getRegistry();
+    registry.addPropertyChangeListener(WeakListeners.propertyChange(editorListener, registry));
+    OpenProjects openProjects = OpenProjects.getDefault();
+    openProjects.addPropertyChangeListener(WeakListeners.propertyChange(openProjectsListener, openProjects));
+    SwingUtilities.invokeLater(this::_updateEditors);
+    _updateOpenProjects();
+  }
+
+  /**
+   * Remembers that the encoding of the file was detected, only such files are re-detected once they change
+   *
+   * @param pFileObject file whose encoding was detected
+   */
+  void detected(@NotNull FileObject pFileObject)
+  {
+    detectedPaths.put(pFileObject.getPath(), Boolean.TRUE);
+  }
+
+  /**
+   * Queues the file for re-detection if its encoding was detected before
+   *
+   * @param pFileObject changed file
+   */
+  void changed(@NotNull FileObject pFileObject)
+  {
+    String path = pFileObject.getPath();
+    if (detectedPaths.getIfPresent(path) == null)
+      return;
+    Priority priority = _getPriority(path);
+    synchronized (queues)
+    {
+      for (int i = priority.ordinal() + 1; i < queues.size(); i++)
+        queues.get(i).remove(path);
+      if (!_isQueuedBefore(path, priority))
+        queues.get(priority.ordinal()).put(path, pFileObject);
+      if (!scheduled)
+      {
+        scheduled = true;
+        task.schedule(COALESCE_DELAY_MS);
+      }
+    }
+  }
+
+  /**
+   * Drops the file from the queues. The file is still known as detected, so it is re-detected if it is created again
+   *
+   * @param pFileObject deleted file
+   */
+  void deleted(@NotNull FileObject pFileObject)
+  {
+    String path = pFileObject.getPath();
+    synchronized (queues)
+    {
+      for (LinkedHashMap<String, FileObject> queue : queues)
+        queue.remove(path);
+    }
+  }
+
+  /**
+   * Queues the renamed file for re-detection if its encoding was detected under the old name
+   *
+   * @param pFileObject renamed file
+   * @param pOldPath    path of the file before it was renamed
+   */
+  void renamed(@NotNull FileObject pFileObject, @NotNull String pOldPath)
+  {
+    if (detectedPaths.getIfPresent(pOldPath) == null)
+      return;
+    deleted(pFileObject);
+    detected(pFileObject);
+    changed(pFileObject);
+  }
+
+  /**
+   * @return the number of queued files per priority
+   */
+  @NotNull
+  Map<Priority, Integer> getQueueSizes()
+  {
+    Map<Priority, Integer> sizes = new EnumMap<>(Priority.class);
+    synchronized (queues)
+    {
+      for (Priority priority : Priority.values())
+        sizes.put(priority, queues.get(priority.ordinal()).size());
+    }
+    return sizes;
+  }
+
+  /**
+   * Sets the files of the visible and open editors, queued files of these editors are moved up
+   *
+   * @param pVisibleEditorPaths paths of the files in the visible editors
+   * @param pOpenEditorPaths    paths of the files in all open editors
+   */
+  void setEditorPaths(@NotNull Set<String> pVisibleEditorPaths, @NotNull Set<String> pOpenEditorPaths)
+  {
+    visibleEditorPaths = pVisibleEditorPaths;
+    openEditorPaths = pOpenEditorPaths;
+    synchronized (queues)
+    {
+      for (int i = Priority.OPEN_EDITOR.ordinal(); i < queues.size(); i++)
+      {
+        Iterator<Map.Entry<String, FileObject>> iterator = queues.get(i).entrySet().iterator();
+        while (iterator.hasNext())
+        {
+          Map.Entry<String, FileObject> entry = iterator.next();
+          Priority priority = _getPriority(entry.getKey());
+          if (priority.ordinal() < i)
+          {
+            iterator.remove();
+            queues.get(priority.ordinal()).put(entry.getKey(), entry.getValue());
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @param pOpenProjectPaths paths of the directories of all open projects
+   */
+  void setOpenProjectPaths(@NotNull List<String> pOpenProjectPaths)
+  {
+    openProjectPaths = pOpenProjectPaths;
+  }
+
+  @NotNull
+  private Priority _getPriority(@NotNull String pPath)
+  {
+    if (visibleEditorPaths.contains(pPath))
+      return Priority.VISIBLE_EDITOR;
+    if (openEditorPaths.contains(pPath))
+      return Priority.OPEN_EDITOR;
+    for (String projectPath : openProjectPaths)
+    {
+      if (pPath.startsWith(projectPath + "/"))
+        return Priority.OPEN_PROJECT;
+    }
+    return Priority.BACKGROUND;
+  }
+
+  private boolean _isQueuedBefore(@NotNull String pPath, @NotNull Priority pPriority)
+  {
+    for (int i = 0; i <= pPriority.ordinal(); i++)
+    {
+      if (queues.get(i).containsKey(pPath))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Works through the queues, always taking the first file of the queue with the highest priority
+   */
+  private void _process()
+  {
+    while (true)
+    {
+      FileObject next = null;
+      Priority priority = null;
+      synchronized (queues)
+      {
+        for (Priority currentPriority : Priority.values())
+        {
+          Iterator<FileObject> iterator = queues.get(currentPriority.ordinal()).values().iterator();
+          if (iterator.hasNext())
+          {
+            next = iterator.next();
+            iterator.remove();
+            priority = currentPriority;
+            break;
+          }
+        }
+        if (next == null)
+        {
+          scheduled = false;
+          return;
+        }
+      }
+      if (next.isValid())
+        detector.accept(next);
+      if (priority == Priority.BACKGROUND)
+        _pause();
+    }
+  }
+
+  private void _pause()
+  {
+    try
+    {
+      Thread.sleep(BACKGROUND_PAUSE_MS);
+    }
+    catch (InterruptedException pE)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * collects the files of all open editors, has to be called on the EDT
+   */
+  private void _updateEditors()
+  {
+    Set<String> visible = new HashSet<>();
+    Set<String> open = new HashSet<>();
+    for (TopComponent topComponent : TopComponent.getRegistry().getOpened())
+    {
+      FileObject fileObject = topComponent.getLookup().lookup(FileObject.class);
+      if (fileObject == null)
+        continue;
+      open.add(fileObject.getPath());
+      if (topComponent.isShowing())
+        visible.add(fileObject.getPath());
+    }
+    setEditorPaths(visible, open);
+  }
+
+  private void _updateOpenProjects()
+  {
+    List<String> projectPaths = new ArrayList<>();
+    for (Project project : OpenProjects.getDefault().getOpenProjects())
+      projectPaths.add(project.getProjectDirectory().getPath());
+    setOpenProjectPaths(projectPaths);
+  }
+
+  /**
+   * Queues changed, created and renamed files, unless the IDE wrote them itself
+   */
+  private class _FileChangeListener extends FileChangeAdapter
+  {
+    @Override
+    public void fileDataCreated(FileEvent fe)
+    {
+      if (!fe.isExpected())
+        changed(fe.getFile());
+    }
+
+    @Override
+    public void fileChanged(FileEvent fe)
+    {
+      if (!fe.isExpected())
+        changed(fe.getFile());
+    }
+
+    @Override
+    public void fileDeleted(FileEvent fe)
+    {
+      deleted(fe.getFile());
+    }
+
+    @Override
+    public void fileRenamed(FileRenameEvent fe)
+    {
+      FileObject file = fe.getFile();
+      FileObject parent = file.getParent();
+      if (parent == null || file.isFolder())
+        return;
+      String oldName = fe.getExt().isEmpty() ? fe.getName() : fe.getName() + "." + fe.getExt();
+      renamed(file, parent.getPath().isEmpty() ? oldName : parent.getPath() + "/" + oldName);
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package de.adito.nbm.encoding;
+
+import de.adito.nbm.encoding.index.EncodingIndex;
+import org.jetbrains.annotations.*;
+import org.openide.filesystems.*;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Finds the {@link EncodingIndex} a file belongs to, that is the index file in the closest parent folder up to the repository or project
+ * root. The indexes are loaded and cached per folder by a {@link FolderFileCache}
+ */
+final class RepositoryEncodingIndexes
+{
+
+  private final FolderFileCache<_FolderIndex> indexes = new FolderFileCache<>(EncodingIndex.FILE_NAME, 20000, RepositoryEncodingIndexes::_load);
+
+  /**
+   * @param pFileObject file whose encoding should be determined
+   * @return the index entry of the file, null if no index contains the file with its current size. The content hash of the entry still has
+   * to be checked
+   */
+  @Nullable
+  EncodingIndex.Entry find(@NotNull FileObject pFileObject)
+  {
+    List<_FolderIndex> folderIndexes = indexes.getValues(pFileObject, pIndex -> true);
+    if (folderIndexes.isEmpty())
+      return null;
+    _FolderIndex folderIndex = folderIndexes.get(0);
+    String relativePath = FileUtil.getRelativePath(folderIndex.folder, pFileObject);
+    return relativePath == null ? null : folderIndex.index.find(relativePath, pFileObject.getSize());
+  }
+
+  /**
+   * A broken index must not break the detection, the FolderFileCache treats the folder as if there was no index then
+   */
+  @NotNull
+  private static _FolderIndex _load(@NotNull FileObject pFolder, @NotNull FileObject pIndexFile) throws IOException
+  {
+    return new _FolderIndex(pFolder, EncodingIndex.read(pIndexFile.asBytes()));
+  }
+
+  /**
+   * Index of a folder, together with the folder the paths of the index are relative to
+   */
+  private static final class _FolderIndex
+  {
+    private final FileObject folder;
+    private final EncodingIndex index;
+
+    private _FolderIndex(@NotNull FileObject pFolder, @NotNull EncodingIndex pIndex)
+    {
+      folder = pFolder;
+      index = pIndex;
+    }
+  }
+}
@@ -0,0 +1,262 @@
+package de.adito.nbm.encoding;
+
+import org.jetbrains.annotations.NotNull;
+import org.openide.filesystems.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks whether the complete contents of a file are valid UTF-8. Large files are split into chunks that are read with positional reads and
+ * validated in parallel, a multi-byte sequence that crosses the end of a chunk is validated by the chunk it starts in. The file is not memory
+ * mapped, because a mapping keeps the file locked on Windows until it is garbage collected and the file is usually written right after
+ * being validated. Instead each worker thread reads its chunks into its own direct buffer, which is reused for all following chunks
+ */
+public final class Utf8Validator
+{
+
+  /**
+   * returned if the contents are valid UTF-8
+   */
+  public static final long VALID = -1;
+  private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+  private static final int MAX_SEQUENCE_LENGTH = 4;
+  private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+  /**
+   * direct buffer of the current worker thread, only the threads of the pool read chunks
+   */
+  private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<>();
+
+  private Utf8Validator()
+  {
+  }
+
+  /**
+   * @param pFileObject file to validate, files that are not on the local disk are read completely into memory
+   * @return offset of the first byte of the first invalid sequence, {@link #VALID} if the file is valid UTF-8
+   * @throws IOException if the file cannot be read
+   */
+  public static long findFirstInvalidOffset(@NotNull FileObject pFileObject) throws IOException
+  {
+    File file = FileUtil.toFile(pFileObject);
+    if (file == null)
+      return findFirstInvalidOffset(pFileObject.asBytes());
+    return findFirstInvalidOffset(file.toPath());
+  }
+
+  /**
+   * @param pPath file to validate
+   * @return offset of the first byte of the first invalid sequence, {@link #VALID} if the file is valid UTF-8
+   * @throws IOException if the file cannot be read
+   */
+  public static long findFirstInvalidOffset(@NotNull Path pPath) throws IOException
+  {
+    return findFirstInvalidOffset(pPath, CHUNK_SIZE);
+  }
+
+  /**
+   * @param pPath      file to validate
+   * @param pChunkSize amount of bytes validated by a single task
+   * @return offset of the first byte of the first invalid sequence, {@link #VALID} if the file is valid UTF-8
+   * @throws IOException if the file cannot be read
+   */
+  static long findFirstInvalidOffset(@NotNull Path pPath, int pChunkSize) throws IOException
+  {
+    try (FileChannel channel = FileChannel.open(pPath, StandardOpenOption.READ))
+    {
+      long size = channel.size();
+      int chunks = (int) ((size + pChunkSize - 1) / pChunkSize);
+      if (chunks == 0)
+        return VALID;
+      // even a single chunk is validated by the pool, so the direct buffers stay with its threads
+      AtomicLong firstInvalid = new AtomicLong(Long.MAX_VALUE);
+      POOL.invoke(new _ChunkTask(channel, size, pChunkSize, 0, chunks, firstInvalid));
+      return firstInvalid.get() == Long.MAX_VALUE ? VALID : firstInvalid.get();
+    }
+    catch (UncheckedIOException pE)
+    {
+      throw pE.getCause();
+    }
+  }
+
+  /**
+   * @param pBytes bytes to validate
+   * @return offset of the first byte of the first invalid sequence, {@link #VALID} if the bytes are valid UTF-8
+   */
+  public static long findFirstInvalidOffset(@NotNull byte[] pBytes)
+  {
+    return findFirstInvalidOffset(ByteBuffer.wrap(pBytes), 0, pBytes.length);
+  }
+
+  /**
+   * Validates the sequences that start between the given positions of the buffer. The last sequence may extend past the end position
+   *
+   * @param pBuffer buffer to validate, only absolute reads are used
+   * @param pStart  position of the first byte of the first sequence
+   * @param pEnd    position after the last byte a sequence may start at
+   * @return position of the first byte of the first invalid sequence, {@link #VALID} if all sequences are valid
+   */
+  static long findFirstInvalidOffset(@NotNull ByteBuffer pBuffer, int pStart, int pEnd)
+  {
+    int limit = pBuffer.limit();
+    int position = pStart;
+    while (position < pEnd)
+    {
+      int lead = pBuffer.get(position) & 0xFF;
+      if (lead < 0x80)
+      {
+        position++;
+        continue;
+      }
+      int length;
+      int secondMin = 0x80;
+      int secondMax = 0xBF;
+      if (lead >= 0xC2 && lead <= 0xDF)
+        length = 2;
+      else if (lead >= 0xE0 && lead <= 0xEF)
+      {
+        length = 3;
+        if (lead == 0xE0)
+          secondMin = 0xA0; // overlong
+        else if (lead == 0xED)
+          secondMax = 0x9F; // surrogates
+      }
+      else if (lead >= 0xF0 && lead <= 0xF4)
+      {
+        length = 4;
+        if (lead == 0xF0)
+          secondMin = 0x90; // overlong
+        else if (lead == 0xF4)
+          secondMax = 0x8F; // above U+10FFFF
+      }
+      else
+        return position;
+      if (position + length > limit)
+        return position;
+      int second = pBuffer.get(position + 1) & 0xFF;
+      if (second < secondMin || second > secondMax)
+        return position;
+      for (int i = 2; i < length; i++)
+      {
+        if ((pBuffer.get(position + i) & 0xC0) != 0x80)
+          return position;
+      }
+      position += length;
+    }
+    return VALID;
+  }
+
+  /**
+   * Reads a single chunk together with the bytes around it, that are needed to find the first sequence starting in the chunk and to complete
+   * the last one
+   *
+   * @return absolute offset of the first invalid sequence in the chunk, {@link #VALID} if there is none
+   */
+  private static long _findFirstInvalidOffset(@NotNull FileChannel pChannel, long pSize, int pChunkSize, int pChunk) throws IOException
+  {
+    long chunkStart = (long) pChunk * pChunkSize;
+    long chunkEnd = Math.min(pSize, chunkStart + pChunkSize);
+    long regionStart = Math.max(0, chunkStart - (MAX_SEQUENCE_LENGTH - 1));
+    long regionEnd = Math.min(pSize, chunkEnd + MAX_SEQUENCE_LENGTH - 1);
+    if (regionEnd <= regionStart)
+      return VALID;
+    ByteBuffer buffer = _getBuffer((int) (regionEnd - regionStart));
+    // positional reads do not change the position of the channel, so the chunks can be read concurrently
+    int read = 0;
+    while (buffer.hasRemaining() && read >= 0)
+      read = pChannel.read(buffer, regionStart + buffer.position());
+    buffer.flip();
+    int end = Math.min(buffer.limit(), (int) (chunkEnd - regionStart));
+    int start = _getFirstSequenceStart(buffer, Math.min(end, (int) (chunkStart - regionStart)));
+    long invalid = findFirstInvalidOffset(buffer, start, end);
+    return invalid == VALID ? VALID : regionStart + invalid;
+  }
+
+  /**
+   * @param pSize amount of bytes that have to fit into the buffer
+   * @return the direct buffer of the current thread, cleared and limited to the given size
+   */
+  @NotNull
+  private static ByteBuffer _getBuffer(int pSize)
+  {
+    ByteBuffer buffer = BUFFERS.get();
+    if (buffer == null || buffer.capacity() < pSize)
+    {
+      buffer = ByteBuffer.allocateDirect(Math.max(pSize, CHUNK_SIZE + 2 * (MAX_SEQUENCE_LENGTH - 1)));
+      BUFFERS.set(buffer);
+    }
+    buffer.clear().limit(pSize);
+    return buffer;
+  }
+
+  /**
+   * Skips the continuation bytes at the start of a chunk that belong to a sequence started in the previous chunk
+   *
+   * @param pBuffer     bytes of the chunk and the bytes before it
+   * @param pChunkStart position of the chunk start in the buffer
+   * @return position of the first sequence that has to be validated by this chunk
+   */
+  private static int _getFirstSequenceStart(@NotNull ByteBuffer pBuffer, int pChunkStart)
+  {
+    for (int lead = pChunkStart - 1; lead >= 0 && lead >= pChunkStart - (MAX_SEQUENCE_LENGTH - 1); lead--)
+    {
+      int value = pBuffer.get(lead) & 0xFF;
+      if ((value & 0xC0) == 0x80)
+        continue;
+      int length = value >= 0xF0 ? 4 : value >= 0xE0 ? 3 : value >= 0xC0 ? 2 : 1;
+      return Math.max(pChunkStart, lead + length);
+    }
+    return pChunkStart;
+  }
+
+  /**
+   * Splits a range of chunks until only a single chunk is left. Chunks behind an already found invalid sequence are skipped
+   */
+  private static class _ChunkTask extends RecursiveAction
+  {
+    private final FileChannel channel;
+    private final long size;
+    private final int chunkSize;
+    private final int fromChunk;
+    private final int toChunk;
+    private final AtomicLong firstInvalid;
+
+    _ChunkTask(@NotNull FileChannel pChannel, long pSize, int pChunkSize, int pFromChunk, int pToChunk, @NotNull AtomicLong pFirstInvalid)
+    {
+      channel = pChannel;
+      size = pSize;
+      chunkSize = pChunkSize;
+      fromChunk = pFromChunk;
+      toChunk = pToChunk;
+      firstInvalid = pFirstInvalid;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if (toChunk - fromChunk > 1)
+      {
+        int middle = (fromChunk + toChunk) >>> 1;
+        invokeAll(new _ChunkTask(channel, size, chunkSize, fromChunk, middle, firstInvalid),
+                  new _ChunkTask(channel, size, chunkSize, middle, toChunk, firstInvalid));
+        return;
+      }
+      if ((long) fromChunk * chunkSize > firstInvalid.get())
+        return;
+      try
+      {
+        long invalid = _findFirstInvalidOffset(channel, size, chunkSize, fromChunk);
+        if (invalid != VALID)
+          firstInvalid.accumulateAndGet(invalid, Math::min);
+      }
+      catch (IOException pE)
+      {
+        throw new UncheckedIOException(pE);
+      }
+    }
+  }
+}
@@ -0,0 +1,270 @@
+package de.adito.nbm.encoding.cli;
+
+import com.google.common.io.CountingInputStream;
+import de.adito.nbm.encoding.detection.*;
+import de.adito.nbm.encoding.index.*;
+import org.jetbrains.annotations.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Detects the encodings of all files in directory trees outside of the IDE, e.g. in CI builds or pre-commit hooks. Uses the same detection
+ * engines as the IDE, but neither FileObjects nor preferences. Directories are walked and files are detected in parallel
+ * <pre>
+ * java -jar target/encoding-&lt;version&gt;-jar-with-dependencies.jar [--format json|csv] [--expect &lt;charset&gt;] [--threads &lt;n&gt;]
+ *                                                             [--include-hidden] [--write-index] &lt;path&gt;...
+ * </pre>
+ * The jar is built by mvn package assembly:single and named after the artifact and version of the pom, e.g.
+ * encoding-1.0.7-jar-with-dependencies.jar. Exits with {@link #EXIT_UNEXPECTED_ENCODING} if an expected encoding is given and a file was detected to be in another encoding. Files
+ * whose encoding could not be detected (e.g. pure ASCII) are accepted. With --write-index an {@link EncodingIndex} of the detected files is
+ * written into each given directory, so the IDE does not have to detect these files again
+ */
+public final class BatchDetector
+{
+
+  public static final int EXIT_OK = 0;
+  public static final int EXIT_UNEXPECTED_ENCODING = 1;
+  public static final int EXIT_USAGE = 2;
+  public static final int EXIT_INDEX_NOT_WRITTEN = 3;
+  private static final int FILE_BATCH_SIZE = 16;
+  private static final String USAGE = "Usage: BatchDetector [--format json|csv] [--expect <charset>] [--threads <n>] [--include-hidden] [--write-index] " +
+      "<path>...";
+
+  private final DetectionReport.Format format;
+  private final Charset expectedEncoding;
+  private final int threads;
+  private final boolean includeHidden;
+  private final boolean writeIndex;
+
+  private BatchDetector(@NotNull DetectionReport.Format pFormat, @Nullable Charset pExpectedEncoding, int pThreads, boolean pIncludeHidden,
+                        boolean pWriteIndex)
+  {
+    format = pFormat;
+    expectedEncoding = pExpectedEncoding;
+    threads = pThreads;
+    includeHidden = pIncludeHidden;
+    writeIndex = pWriteIndex;
+  }
+
+  public static void main(String[] pArgs)
+  {
+    System.exit(run(pArgs, System.out, System.err));
+  }
+
+  /**
+   * @param pArgs command line arguments
+   * @param pOut  receives the report
+   * @param pErr  receives the summary, unexpected encodings and errors
+   * @return exit code
+   */
+  public static int run(@NotNull String[] pArgs, @NotNull PrintStream pOut, @NotNull PrintStream pErr)
+  {
+    DetectionReport.Format format = DetectionReport.Format.JSON;
+    Charset expectedEncoding = null;
+    int threads = Runtime.getRuntime().availableProcessors();
+    boolean includeHidden = false;
+    boolean writeIndex = false;
+    List<Path> roots = new ArrayList<>();
+    try
+    {
+      for (int i = 0; i < pArgs.length; i++)
+      {
+        switch (pArgs[i])
+        {
+          case "--format":
+            format = DetectionReport.Format.valueOf(_value(pArgs, ++i).toUpperCase(Locale.ROOT));
+            break;
+          case "--expect":
+            expectedEncoding = Charset.forName(_value(pArgs, ++i));
+            break;
+          case "--threads":
+            threads = Integer.parseInt(_value(pArgs, ++i));
+            break;
+          case "--include-hidden":
+            includeHidden = true;
+            break;
+          case "--write-index":
+            writeIndex = true;
+            break;
+          default:
+            if (pArgs[i].startsWith("--"))
+              throw new IllegalArgumentException("unknown option " + pArgs[i]);
+            roots.add(Paths.get(pArgs[i]));
+        }
+      }
+      if (roots.isEmpty() || threads < 1)
+        throw new IllegalArgumentException("no path given");
+    }
+    catch (IllegalArgumentException pE) // also covers invalid numbers and charsets
+    {
+      pErr.println(pE.getMessage());
+      pErr.println(USAGE);
+      return EXIT_USAGE;
+    }
+    return new BatchDetector(format, expectedEncoding, threads, includeHidden, writeIndex).detect(roots, pOut, pErr);
+  }
+
+  /**
+   * Detects all files below the given paths and writes the report
+   *
+   * @return exit code
+   */
+  private int detect(@NotNull List<Path> pRoots, @NotNull PrintStream pOut, @NotNull PrintStream pErr)
+  {
+    long start = System.nanoTime();
+    List<DetectionReport.Entry> entries = new ArrayList<>();
+    List<String> indexErrors = new ArrayList<>();
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try
+    {
+      for (Path root : pRoots)
+      {
+        Queue<DetectionReport.Entry> rootEntries = new ConcurrentLinkedQueue<>();
+        if (Files.isDirectory(root))
+        {
+          EncodingIndexWriter indexWriter = writeIndex ? new EncodingIndexWriter() : null;
+          pool.invoke(new _DirectoryTask(root, root, rootEntries, indexWriter));
+          if (indexWriter != null)
+            _writeIndex(indexWriter, root.resolve(EncodingIndex.FILE_NAME), indexErrors);
+        }
+        else
+        {
+          // a relative file name has no parent, the file is reported by its name like the files of a directory
+          Path file = root.toAbsolutePath();
+          rootEntries.add(_detect(file.getParent(), file, null));
+        }
+        entries.addAll(rootEntries);
+      }
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+    entries.sort(Comparator.comparing(DetectionReport.Entry::getPath));
+    new DetectionReport(format, entries).write(pOut);
+    pOut.flush();
+
+    double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+    long bytesExamined = entries.stream().mapToLong(DetectionReport.Entry::getBytesExamined).sum();
+    pErr.printf("%d files, %d bytes examined in %.2f s (%.1f MB/s)%n", entries.size(), bytesExamined, seconds,
+                bytesExamined / (1024d * 1024d) / seconds);
+    int exitCode = EXIT_OK;
+    for (DetectionReport.Entry entry : entries)
+    {
+      if (entry.getError() != null)
+        pErr.println(entry.getPath() + ": " + entry.getError());
+      else if (expectedEncoding != null && entry.getCharset() != null && !expectedEncoding.equals(entry.getCharset()))
+      {
+        pErr.println(entry.getPath() + ": expected " + expectedEncoding.name() + ", detected " + entry.getCharset().name());
+        exitCode = EXIT_UNEXPECTED_ENCODING;
+      }
+    }
+    indexErrors.forEach(pErr::println);
+    return indexErrors.isEmpty() ? exitCode : EXIT_INDEX_NOT_WRITTEN;
+  }
+
+  private static void _writeIndex(@NotNull EncodingIndexWriter pIndexWriter, @NotNull Path pIndexFile, @NotNull List<String> pErrors)
+  {
+    try
+    {
+      pIndexWriter.write(pIndexFile);
+    }
+    catch (IOException pE)
+    {
+      pErrors.add(pIndexFile + ": index not written, " + pE);
+    }
+  }
+
+  /**
+   * @param pIndexWriter receives the detected encoding, null if no index is written
+   */
+  @NotNull
+  private static DetectionReport.Entry _detect(@NotNull Path pRoot, @NotNull Path pFile, @Nullable EncodingIndexWriter pIndexWriter)
+  {
+    String relativePath = pRoot.relativize(pFile).toString().replace(File.separatorChar, '/');
+    // binaries are not added to the index, the IDE recognizes them by their name before looking at the index
+    if (BinaryContentFilter.isBinaryName(pFile.getFileName().toString()))
+      return new DetectionReport.Entry(relativePath, null, 0, null);
+    try
+    {
+      // indexed files are hashed completely, so they are read into memory once and detected from there
+      byte[] contents = pIndexWriter != null && Files.size(pFile) <= EncodingIndex.MAX_FILE_SIZE ? Files.readAllBytes(pFile) : null;
+      try (CountingInputStream in = new CountingInputStream(contents == null ? Files.newInputStream(pFile) : new ByteArrayInputStream(contents)))
+      {
+        EncodingDetectorChain.Result result = EncodingDetectorChain.analyze(in);
+        Charset charset = result.getEncoding().orElse(null);
+        // binaries are recognized by their contents in the IDE, an index entry would hide that
+        if (contents != null && !result.isBinary())
+          pIndexWriter.add(relativePath, contents.length, EncodingIndex.hashContents(contents), charset);
+        return new DetectionReport.Entry(relativePath, charset, in.getCount(), null);
+      }
+    }
+    catch (IOException | RuntimeException pE)
+    {
+      return new DetectionReport.Entry(relativePath, null, 0, pE.toString());
+    }
+  }
+
+  @NotNull
+  private static String _value(@NotNull String[] pArgs, int pIndex)
+  {
+    if (pIndex >= pArgs.length)
+      throw new IllegalArgumentException(pArgs[pIndex - 1] + " needs a value");
+    return pArgs[pIndex];
+  }
+
+  /**
+   * Forks a task for each subdirectory and for each batch of files of a directory
+   */
+  private class _DirectoryTask extends RecursiveAction
+  {
+    private final Path root;
+    private final Path directory;
+    private final Queue<DetectionReport.Entry> entries;
+    private final EncodingIndexWriter indexWriter;
+
+    _DirectoryTask(@NotNull Path pRoot, @NotNull Path pDirectory, @NotNull Queue<DetectionReport.Entry> pEntries,
+                   @Nullable EncodingIndexWriter pIndexWriter)
+    {
+      root = pRoot;
+      directory = pDirectory;
+      entries = pEntries;
+      indexWriter = pIndexWriter;
+    }
+
+    @Override
+    protected void compute()
+    {
+      List<ForkJoinTask<?>> subTasks = new ArrayList<>();
+      List<Path> files = new ArrayList<>();
+      try (DirectoryStream<Path> children = Files.newDirectoryStream(directory))
+      {
+        for (Path child : children)
+        {
+          String name = child.getFileName().toString();
+          if ((!includeHidden && name.startsWith(".")) || EncodingIndex.FILE_NAME.equals(name))
+            continue;
+          if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS))
+            subTasks.add(new _DirectoryTask(root, child, entries, indexWriter));
+          else if (Files.isRegularFile(child))
+            files.add(child);
+        }
+      }
+      catch (IOException pE)
+      {
+        entries.add(new DetectionReport.Entry(root.relativize(directory).toString().replace(File.separatorChar, '/'), null, 0,
+                                              pE.toString()));
+      }
+      for (int i = 0; i < files.size(); i += FILE_BATCH_SIZE)
+      {
+        List<Path> batch = files.subList(i, Math.min(files.size(), i + FILE_BATCH_SIZE));
+        subTasks.add(ForkJoinTask.adapt(() -> batch.forEach(pFile -> entries.add(_detect(root, pFile, indexWriter)))));
+      }
+      invokeAll(subTasks);
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package de.adito.nbm.encoding.cli;
+
+import org.jetbrains.annotations.*;
+
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Report of a {@link BatchDetector} run, one entry per file
+ */
+public class DetectionReport
+{
+
+  /**
+   * Output formats of the report
+   */
+  public enum Format
+  {
+    JSON, CSV
+  }
+
+  private final Format format;
+  private final List<Entry> entries;
+
+  public DetectionReport(@NotNull Format pFormat, @NotNull List<Entry> pEntries)
+  {
+    format = pFormat;
+    entries = pEntries;
+  }
+
+  /**
+   * @param pOut stream to write the report to
+   */
+  public void write(@NotNull PrintStream pOut)
+  {
+    if (format == Format.CSV)
+      _writeCsv(pOut);
+    else
+      _writeJson(pOut);
+  }
+
+  private void _writeCsv(@NotNull PrintStream pOut)
+  {
+    pOut.println("path,charset,bytesExamined,error");
+    for (Entry entry : entries)
+    {
+      pOut.println(_csv(entry.getPath()) + "," + (entry.getCharset() == null ? "" : entry.getCharset().name()) + "," +
+                       entry.getBytesExamined() + "," + (entry.getError() == null ? "" : _csv(entry.getError())));
+    }
+  }
+
+  private void _writeJson(@NotNull PrintStream pOut)
+  {
+    pOut.println("[");
+    for (int i = 0; i < entries.size(); i++)
+    {
+      Entry entry = entries.get(i);
+      pOut.print("  {\"path\": " + _json(entry.getPath()) +
+                     ", \"charset\": " + (entry.getCharset() == null ? "null" : _json(entry.getCharset().name())) +
+                     ", \"bytesExamined\": " + entry.getBytesExamined() +
+                     (entry.getError() == null ? "" : ", \"error\": " + _json(entry.getError())) + "}");
+      pOut.println(i < entries.size() - 1 ? "," : "");
+    }
+    pOut.println("]");
+  }
+
+  @NotNull
+  private static String _csv(@NotNull String pValue)
+  {
+    if (pValue.indexOf(',') < 0 && pValue.indexOf('"') < 0 && pValue.indexOf('\n') < 0 && pValue.indexOf('\r') < 0)
+      return pValue;
+    return "\"" + pValue.replace("\"", "\"\"") + "\"";
+  }
+
+  @NotNull
+  private static String _json(@NotNull String pValue)
+  {
+    StringBuilder builder = new StringBuilder("\"");
+    for (char c : pValue.toCharArray())
+    {
+      if (c == '"' || c == '\\')
+        builder.append('\\').append(c);
+      else if (c < 0x20)
+        builder.append(String.format("\\u%04x", (int) c));
+      else
+        builder.append(c);
+    }
+    return builder.append('"').toString();
+  }
+
+  /**
+   * Detection result of a single file
+   */
+  public static class Entry
+  {
+    private final String path;
+    private final Charset charset;
+    private final long bytesExamined;
+    private final String error;
+
+    /**
+     * @param pPath          path relative to the detected directory, separated by slashes
+     * @param pCharset       detected charset, null if none was detected
+     * @param pBytesExamined amount of bytes the detection read
+     * @param pError         description of the error if the file could not be read
+     */
+    public Entry(@NotNull String pPath, @Nullable Charset pCharset, long pBytesExamined, @Nullable String pError)
+    {
+      path = pPath;
+      charset = pCharset;
+      bytesExamined = pBytesExamined;
+      error = pError;
+    }
+
+    @NotNull
+    public String getPath()
+    {
+      return path;
+    }
+
+    @Nullable
+    public Charset getCharset()
+    {
+      return charset;
+    }
+
+    public long getBytesExamined()
+    {
+      return bytesExamined;
+    }
+
+    @Nullable
+    public String getError()
+    {
+      return error;
+    }
+  }
+}
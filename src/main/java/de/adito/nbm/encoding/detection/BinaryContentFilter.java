@@ -0,0 +1,121 @@
+package de.adito.nbm.encoding.detection;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recognizes binary files by their extension or by the first block of their contents (magic numbers and NUL bytes), so the detection engines
+ * never have to look at them. Counts how many files were skipped this way
+ */
+public final class BinaryContentFilter
+{
+
+  private static final Set<String> BINARY_EXTENSIONS = new HashSet<>(Arrays.asList(
+      "class", "jar", "war", "ear", "nbm", "jmod", "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "png", "jpg", "jpeg", "gif", "bmp", "ico",
+      "webp", "tif", "tiff", "pdf", "exe", "dll", "so", "dylib", "o", "a", "lib", "woff", "woff2", "ttf", "otf", "eot", "mp3", "mp4",
+      "avi", "mov", "wav", "ogg", "flac", "iso", "dmg", "doc", "xls", "ppt", "docx", "xlsx", "pptx", "odt", "ods", "odp", "sqlite", "jks",
+      "p12", "keystore", "ser", "pyc"));
+  private static final int[][] MAGIC_NUMBERS = {
+      {0x50, 0x4B, 0x03, 0x04}, // zip, jar
+      {0xCA, 0xFE, 0xBA, 0xBE}, // class
+      {0x89, 0x50, 0x4E, 0x47}, // png
+      {0x47, 0x49, 0x46, 0x38}, // gif
+      {0xFF, 0xD8, 0xFF}, // jpeg
+      {0x25, 0x50, 0x44, 0x46, 0x2D}, // pdf
+      {0x7F, 0x45, 0x4C, 0x46}, // elf
+      {0x1F, 0x8B}, // gzip
+      {0x37, 0x7A, 0xBC, 0xAF, 0x27, 0x1C}, // 7z
+      {0x52, 0x61, 0x72, 0x21, 0x1A, 0x07}, // rar
+  };
+  private static final AtomicLong REJECTED_BY_NAME = new AtomicLong();
+  private static final AtomicLong REJECTED_BY_CONTENT = new AtomicLong();
+
+  private BinaryContentFilter()
+  {
+  }
+
+  /**
+   * @param pNameExt name of the file including its extension
+   * @return true if the file has the extension of a known binary format. Counts the file as skipped if so
+   */
+  public static boolean isBinaryName(@NotNull String pNameExt)
+  {
+    int dot = pNameExt.lastIndexOf('.');
+    if (dot < 0 || !BINARY_EXTENSIONS.contains(pNameExt.substring(dot + 1).toLowerCase(Locale.ROOT)))
+      return false;
+    REJECTED_BY_NAME.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Checks the first block of a file. Text files never contain NUL bytes, except for the UTF-16 and UTF-32 encodings, which are only detected
+   * with a BOM anyway
+   *
+   * @param pBuffer first block of the file
+   * @param pLength amount of valid bytes in the buffer
+   * @return true if the block starts with a known magic number or contains a NUL byte. Counts the file as skipped if so
+   */
+  public static boolean isBinaryContent(@NotNull byte[] pBuffer, int pLength)
+  {
+    if (_startsWithBom(pBuffer, pLength) || (!_startsWithMagicNumber(pBuffer, pLength) && !_containsNul(pBuffer, pLength)))
+      return false;
+    REJECTED_BY_CONTENT.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * @return amount of files that were skipped because of their extension
+   */
+  public static long getRejectedByName()
+  {
+    return REJECTED_BY_NAME.get();
+  }
+
+  /**
+   * @return amount of files that were skipped after reading their first block
+   */
+  public static long getRejectedByContent()
+  {
+    return REJECTED_BY_CONTENT.get();
+  }
+
+  private static boolean _startsWithBom(@NotNull byte[] pBuffer, int pLength)
+  {
+    return _startsWith(pBuffer, pLength, new int[]{0xEF, 0xBB, 0xBF}) || _startsWith(pBuffer, pLength, new int[]{0xFE, 0xFF})
+        || _startsWith(pBuffer, pLength, new int[]{0xFF, 0xFE}) || _startsWith(pBuffer, pLength, new int[]{0x00, 0x00, 0xFE, 0xFF});
+  }
+
+  private static boolean _startsWithMagicNumber(@NotNull byte[] pBuffer, int pLength)
+  {
+    for (int[] magicNumber : MAGIC_NUMBERS)
+    {
+      if (_startsWith(pBuffer, pLength, magicNumber))
+        return true;
+    }
+    return false;
+  }
+
+  private static boolean _startsWith(@NotNull byte[] pBuffer, int pLength, @NotNull int[] pPrefix)
+  {
+    if (pLength < pPrefix.length)
+      return false;
+    for (int i = 0; i < pPrefix.length; i++)
+    {
+      if ((pBuffer[i] & 0xFF) != pPrefix[i])
+        return false;
+    }
+    return true;
+  }
+
+  private static boolean _containsNul(@NotNull byte[] pBuffer, int pLength)
+  {
+    for (int i = 0; i < pLength; i++)
+    {
+      if (pBuffer[i] == 0)
+        return true;
+    }
+    return false;
+  }
+}
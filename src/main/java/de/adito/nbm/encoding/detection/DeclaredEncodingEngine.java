@@ -0,0 +1,192 @@
+package de.adito.nbm.encoding.detection;
+
+import org.jetbrains.annotations.*;
+import org.openide.util.lookup.ServiceProvider;
+
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * Reads the encoding a file declares about itself: the encoding of an XML prolog, the charset of an HTML meta tag or a coding cookie
+ * (<code># -*- coding: latin-1 -*-</code>) in the first two lines of a Python or Ruby script. The kind of file is told by its first
+ * characters, so a meta tag is only looked for in files that start with markup. Only the first {@link #SNIFF_LIMIT} bytes are
+ * looked at, and a declaration is only trusted if it names a supported charset that stores ASCII as single bytes and the bytes read so far
+ * are valid in that charset (e.g. a file declared as UTF-8 that was saved as ISO-8859-1). A file that starts with a BOM is left to the
+ * {@link Utf8BomEngine}
+ */
+@ServiceProvider(service = IEncodingDetector.class, position = 50)
+public class DeclaredEncodingEngine implements IEncodingDetector
+{
+
+  static final int SNIFF_LIMIT = 1024;
+  private static final Pattern XML_ENCODING = Pattern.compile("\\sencoding\\s*=\\s*[\"']([A-Za-z][\\w.:-]*)[\"']");
+  private static final Pattern HTML_CHARSET = Pattern.compile("<meta\\s[^>]*charset\\s*=\\s*[\"']?([A-Za-z][\\w.:-]*)",
+                                                              Pattern.CASE_INSENSITIVE);
+  private static final Pattern HTML_HEAD_END = Pattern.compile("</head|<body", Pattern.CASE_INSENSITIVE);
+  private static final Pattern CODING_COOKIE = Pattern.compile("^[ \\t\\f]*#.*?coding[:=][ \\t]*([-\\w.]+)", Pattern.MULTILINE);
+
+  @NotNull
+  @Override
+  public String getName()
+  {
+    return "Declared encoding";
+  }
+
+  @NotNull
+  @Override
+  public Cost getCost()
+  {
+    return Cost.LOW;
+  }
+
+  @NotNull
+  @Override
+  public Accuracy getAccuracy()
+  {
+    return Accuracy.EXACT;
+  }
+
+  @NotNull
+  @Override
+  public IDetectionSession createSession()
+  {
+    return new _Session();
+  }
+
+  /**
+   * @param pName charset name as declared in the file
+   * @return the declared charset, null if it is unknown or does not store ASCII as single bytes (a file that could be read up to the
+   * declaration with single bytes cannot be e.g. UTF-16)
+   */
+  @Nullable
+  static Charset toCharset(@NotNull String pName)
+  {
+    // Python accepts e.g. "latin-1" or "utf_8", which the JRE does not know under these names
+    for (String name : Arrays.asList(pName, pName.replace('_', '-'), pName.replace("_", "").replace("-", "")))
+    {
+      try
+      {
+        if (!Charset.isSupported(name))
+          continue;
+        Charset charset = Charset.forName(name);
+        if (charset.canEncode() && Arrays.equals("<?=#".getBytes(charset), new byte[]{'<', '?', '=', '#'}))
+          return charset;
+        return null;
+      }
+      catch (IllegalCharsetNameException pE)
+      {
+        // try the next spelling
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param pCharset declared charset
+   * @param pBytes   bytes read so far
+   * @param pLength  amount of valid bytes
+   * @return true if the bytes are valid in the charset, a sequence that is cut off at the end is not an error
+   */
+  static boolean isDecodable(@NotNull Charset pCharset, @NotNull byte[] pBytes, int pLength)
+  {
+    CharsetDecoder decoder = pCharset.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT);
+    return !decoder.decode(ByteBuffer.wrap(pBytes, 0, pLength), CharBuffer.allocate(pLength), false).isError();
+  }
+
+  /**
+   * Collects the first bytes of the stream and looks for a declaration after every block, so the session is done as soon as the declaration
+   * was read
+   */
+  private static class _Session implements IDetectionSession
+  {
+    private final byte[] head = new byte[SNIFF_LIMIT];
+    private int headLength;
+    private boolean done;
+    private Charset declared;
+
+    @Override
+    public void feed(@NotNull byte[] pBuffer, int pLength)
+    {
+      int length = Math.min(pLength, SNIFF_LIMIT - headLength);
+      System.arraycopy(pBuffer, 0, head, headLength, length);
+      headLength += length;
+      _sniff(headLength == SNIFF_LIMIT);
+    }
+
+    @Override
+    public boolean isDone()
+    {
+      return done;
+    }
+
+    @NotNull
+    @Override
+    public Optional<Charset> finish()
+    {
+      if (!done)
+        _sniff(true);
+      return Optional.ofNullable(declared);
+    }
+
+    /**
+     * @param pComplete true if no more bytes will be added to the head, a declaration that is not found until then is missing
+     */
+    private void _sniff(boolean pComplete)
+    {
+      if (headLength >= 2 && ((head[0] & 0xFF) == 0xFE || (head[0] & 0xFF) == 0xFF || (head[0] & 0xFF) == 0xEF))
+      {
+        done = true;
+        return;
+      }
+      // ISO-8859-1 maps every byte to a char, so the offsets and ASCII characters of the text are the same as in the bytes
+      String text = new String(head, 0, headLength, StandardCharsets.ISO_8859_1);
+      if (text.startsWith("<?xml"))
+      {
+        int prologEnd = text.indexOf("?>");
+        if (prologEnd >= 0 || pComplete)
+          _decide(XML_ENCODING.matcher(prologEnd >= 0 ? text.substring(0, prologEnd) : text), true);
+        return;
+      }
+      if (text.startsWith("#"))
+      {
+        int firstLineEnd = text.indexOf('\n');
+        int secondLineEnd = firstLineEnd < 0 ? -1 : text.indexOf('\n', firstLineEnd + 1);
+        if (secondLineEnd >= 0 || pComplete)
+          _decide(CODING_COOKIE.matcher(secondLineEnd >= 0 ? text.substring(0, secondLineEnd) : text), true);
+        return;
+      }
+      String trimmed = text.trim();
+      if (!trimmed.startsWith("<"))
+      {
+        // neither markup nor a script, e.g. a Java file. Only the first blocks of markup files are searched for a meta tag
+        done = !trimmed.isEmpty() || pComplete;
+        return;
+      }
+      Matcher headEnd = HTML_HEAD_END.matcher(text);
+      boolean headComplete = headEnd.find();
+      _decide(HTML_CHARSET.matcher(headComplete ? text.substring(0, headEnd.start()) : text), pComplete || headComplete);
+    }
+
+    /**
+     * @param pMatcher  matcher of the declaration
+     * @param pComplete true if the matched text will not grow anymore, the session is done even if the declaration was not found then.
+     *                  Otherwise a declaration that reaches the end of the text may still continue in the next block
+     */
+    private void _decide(@NotNull Matcher pMatcher, boolean pComplete)
+    {
+      if (pMatcher.find() && (pComplete || !pMatcher.hitEnd()))
+      {
+        Charset charset = toCharset(pMatcher.group(1));
+        // a declaration the bytes contradict is wrong, the other engines decide then
+        declared = charset != null && isDecodable(charset, head, headLength) ? charset : null;
+        done = true;
+      }
+      else if (pComplete)
+        done = true;
+    }
+  }
+}
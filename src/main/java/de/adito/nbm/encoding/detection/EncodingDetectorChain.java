@@ -0,0 +1,197 @@
+package de.adito.nbm.encoding.detection;
+
+import org.jetbrains.annotations.*;
+import org.openide.util.Lookup;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Feeds a stream to all registered {@link IEncodingDetector}s at once. The result of the first engine (in the order of registration) that
+ * detects an encoding wins, so reading stops as soon as all engines before the deciding one have given up. Streams whose first block looks
+ * binary are not fed to the engines at all, see {@link BinaryContentFilter}, the {@link Result} tells them apart from text files whose encoding
+ * could not be detected
+ */
+public final class EncodingDetectorChain
+{
+
+  /**
+   * amount of bytes handed to the engines at once
+   */
+  public static final int BLOCK_SIZE = 4096;
+  private static final Lookup.Result<IEncodingDetector> DETECTORS = Lookup.getDefault().lookupResult(IEncodingDetector.class);
+
+  private EncodingDetectorChain()
+  {
+  }
+
+  /**
+   * @return all registered engines, in the order they are asked
+   */
+  @NotNull
+  public static List<IEncodingDetector> getDetectors()
+  {
+    return new ArrayList<>(DETECTORS.allInstances());
+  }
+
+  /**
+   * Detects the encoding with all registered engines
+   *
+   * @param pInputStream stream to read from, is not closed by this method
+   * @return Optional of the Charset, empty optional if no engine detected a Charset
+   * @throws IOException if the stream cannot be read
+   */
+  @NotNull
+  public static Optional<Charset> detect(@NotNull InputStream pInputStream) throws IOException
+  {
+    return detect(pInputStream, DETECTORS.allInstances());
+  }
+
+  /**
+   * Detects the encoding with the given engines
+   *
+   * @param pInputStream stream to read from, is not closed by this method
+   * @param pDetectors   engines to ask, in order
+   * @return Optional of the Charset, empty optional if no engine detected a Charset or the contents are binary
+   * @throws IOException if the stream cannot be read
+   */
+  @NotNull
+  public static Optional<Charset> detect(@NotNull InputStream pInputStream, @NotNull Collection<? extends IEncodingDetector> pDetectors)
+      throws IOException
+  {
+    return analyze(pInputStream, pDetectors).getEncoding();
+  }
+
+  /**
+   * Detects the encoding with all registered engines
+   *
+   * @param pInputStream stream to read from, is not closed by this method
+   * @return the detected Charset, or that the contents are binary
+   * @throws IOException if the stream cannot be read
+   */
+  @NotNull
+  public static Result analyze(@NotNull InputStream pInputStream) throws IOException
+  {
+    return analyze(pInputStream, DETECTORS.allInstances());
+  }
+
+  /**
+   * Detects the encoding with the given engines
+   *
+   * @param pInputStream stream to read from, is not closed by this method
+   * @param pDetectors   engines to ask, in order
+   * @return the detected Charset, or that the contents are binary
+   * @throws IOException if the stream cannot be read
+   */
+  @NotNull
+  public static Result analyze(@NotNull InputStream pInputStream, @NotNull Collection<? extends IEncodingDetector> pDetectors)
+      throws IOException
+  {
+    List<_Session> sessions = new ArrayList<>();
+    for (IEncodingDetector detector : pDetectors)
+      sessions.add(new _Session(detector.createSession()));
+    byte[] buf = new byte[BLOCK_SIZE];
+    int nread;
+    boolean firstBlock = true;
+    Optional<Charset> decided;
+    while ((decided = _decide(sessions)) == null && (nread = pInputStream.read(buf)) > 0)
+    {
+      if (firstBlock && BinaryContentFilter.isBinaryContent(buf, nread))
+        return Result.BINARY;
+      firstBlock = false;
+      for (_Session session : sessions)
+      {
+        if (session.result == null && !session.session.isDone())
+          session.session.feed(buf, nread);
+      }
+    }
+    if (decided != null)
+      return new Result(decided, false);
+    for (_Session session : sessions)
+    {
+      if (session.finish().isPresent())
+        return new Result(session.result, false);
+    }
+    return new Result(Optional.empty(), false);
+  }
+
+  /**
+   * @return the result of the first engine that detected an encoding, if all engines before it are done. Null if more bytes are needed
+   */
+  @Nullable
+  private static Optional<Charset> _decide(@NotNull List<_Session> pSessions)
+  {
+    for (_Session session : pSessions)
+    {
+      if (session.result == null && !session.session.isDone())
+        return null;
+      if (session.finish().isPresent())
+        return session.result;
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Outcome of a detection, binary contents have no encoding and are not handed to the engines
+   */
+  public static final class Result
+  {
+    /**
+     * contents that were recognized as binary
+     */
+    public static final Result BINARY = new Result(Optional.empty(), true);
+
+    private final Optional<Charset> encoding;
+    private final boolean binary;
+
+    /**
+     * @param pEncoding detected encoding, empty if no engine detected one
+     * @param pBinary   true if the contents are binary
+     */
+    public Result(@NotNull Optional<Charset> pEncoding, boolean pBinary)
+    {
+      encoding = pEncoding;
+      binary = pBinary;
+    }
+
+    /**
+     * @return the detected Charset, empty if no engine detected a Charset or the contents are binary
+     */
+    @NotNull
+    public Optional<Charset> getEncoding()
+    {
+      return encoding;
+    }
+
+    /**
+     * @return true if the contents are binary
+     */
+    public boolean isBinary()
+    {
+      return binary;
+    }
+  }
+
+  /**
+   * Remembers the result of a session, so it is finished only once
+   */
+  private static class _Session
+  {
+    private final IDetectionSession session;
+    private Optional<Charset> result;
+
+    _Session(@NotNull IDetectionSession pSession)
+    {
+      session = pSession;
+    }
+
+    @NotNull
+    Optional<Charset> finish()
+    {
+      if (result == null)
+        result = session.finish();
+      return result;
+    }
+  }
+}
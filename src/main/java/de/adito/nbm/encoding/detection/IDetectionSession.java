@@ -0,0 +1,32 @@
+package de.adito.nbm.encoding.detection;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.Charset;
+import java.util.Optional;
+
+/**
+ * Detection of the encoding of a single stream, the bytes of the stream are fed in consecutive blocks
+ */
+public interface IDetectionSession
+{
+
+  /**
+   * @param pBuffer buffer that contains the next block of the stream
+   * @param pLength amount of valid bytes in the buffer, starting at index 0
+   */
+  void feed(@NotNull byte[] pBuffer, int pLength);
+
+  /**
+   * @return true if the session does not need any more bytes to reach its result
+   */
+  boolean isDone();
+
+  /**
+   * Ends the session, is called exactly once after the session is done or the stream is exhausted
+   *
+   * @return the detected encoding, empty optional if the engine could not decide
+   */
+  @NotNull
+  Optional<Charset> finish();
+}
@@ -0,0 +1,52 @@
+package de.adito.nbm.encoding.detection;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Engine that detects the encoding of a byte stream. Engines are registered via {@code @ServiceProvider(service = IEncodingDetector.class)}
+ * and chained by {@link EncodingDetectorChain} in the order of their position, so cheap engines that are able to decide quickly (e.g. by a
+ * BOM) should have a lower position than expensive statistical engines
+ */
+public interface IEncodingDetector
+{
+
+  /**
+   * Relative amount of work an engine does per byte
+   */
+  enum Cost
+  {
+    LOW, MEDIUM, HIGH
+  }
+
+  /**
+   * How reliable the results of an engine are, if it returns a result at all
+   */
+  enum Accuracy
+  {
+    EXACT, HIGH, STATISTICAL
+  }
+
+  /**
+   * @return name of the engine, e.g. for benchmark results
+   */
+  @NotNull
+  String getName();
+
+  /**
+   * @return relative cost of the engine
+   */
+  @NotNull
+  Cost getCost();
+
+  /**
+   * @return reliability of the results of the engine
+   */
+  @NotNull
+  Accuracy getAccuracy();
+
+  /**
+   * @return a new session for a single stream, sessions are not shared between threads
+   */
+  @NotNull
+  IDetectionSession createSession();
+}
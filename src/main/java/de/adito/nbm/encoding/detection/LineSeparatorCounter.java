@@ -0,0 +1,92 @@
+package de.adito.nbm.encoding.detection;
+
+import org.jetbrains.annotations.*;
+
+import java.io.*;
+
+/**
+ * Counts the line separators in the bytes that are read through it, so the detection of the encoding also yields the line separators without
+ * reading the file again. Only meaningful for encodings that encode CR and LF as single bytes, the counts are dropped if a NUL byte was seen
+ */
+public class LineSeparatorCounter extends FilterInputStream
+{
+
+  private final long size;
+  private long crlf;
+  private long lf;
+  private long cr;
+  private long count;
+  private boolean pendingCr;
+  private boolean nulSeen;
+  private boolean endReached;
+
+  public LineSeparatorCounter(@NotNull InputStream pIn)
+  {
+    this(pIn, -1);
+  }
+
+  /**
+   * @param pIn   stream to count the line separators of
+   * @param pSize amount of bytes in the stream, -1 if unknown. The counts are complete once this amount was read, even if the end of the
+   *              stream was not read
+   */
+  public LineSeparatorCounter(@NotNull InputStream pIn, long pSize)
+  {
+    super(pIn);
+    size = pSize;
+  }
+
+  @Override
+  public int read() throws IOException
+  {
+    int read = super.read();
+    if (read >= 0)
+      _count((byte) read);
+    else
+      endReached = true;
+    return read;
+  }
+
+  @Override
+  public int read(byte[] pBuffer, int pOffset, int pLength) throws IOException
+  {
+    int read = super.read(pBuffer, pOffset, pLength);
+    for (int i = 0; i < read; i++)
+      _count(pBuffer[pOffset + i]);
+    if (read < 0)
+      endReached = true;
+    return read;
+  }
+
+  /**
+   * @return the line separators in the bytes read so far, complete if the whole stream was read. Null if the bytes do not look like
+   * text in a single-byte line separator encoding. A CR at the end of an incomplete sample is not counted, it may be the start of a CRLF
+   */
+  @Nullable
+  public LineSeparators getLineSeparators()
+  {
+    if (nulSeen)
+      return null;
+    boolean complete = endReached || (size >= 0 && count >= size);
+    return new LineSeparators(crlf, lf, cr + (pendingCr && complete ? 1 : 0), count, complete);
+  }
+
+  private void _count(byte pByte)
+  {
+    count++;
+    if (pByte == '\n')
+    {
+      if (pendingCr)
+        crlf++;
+      else
+        lf++;
+      pendingCr = false;
+      return;
+    }
+    if (pendingCr)
+      cr++;
+    pendingCr = pByte == '\r';
+    if (pByte == 0)
+      nulSeen = true;
+  }
+}
@@ -0,0 +1,103 @@
+package de.adito.nbm.encoding.detection;
+
+import org.jetbrains.annotations.*;
+
+/**
+ * Amount of the different line separators found in the examined part of a file. The detection usually stops before the end of a file, so
+ * the counts are a sample of the head unless {@link #isComplete()}
+ */
+public final class LineSeparators
+{
+
+  private final long crlf;
+  private final long lf;
+  private final long cr;
+  private final long examinedBytes;
+  private final boolean complete;
+
+  /**
+   * @param pCrlf          amount of CRLF separators
+   * @param pLf            amount of single LF separators
+   * @param pCr            amount of single CR separators
+   * @param pExaminedBytes amount of bytes the separators were counted in
+   * @param pComplete      true if the bytes are the whole file
+   */
+  public LineSeparators(long pCrlf, long pLf, long pCr, long pExaminedBytes, boolean pComplete)
+  {
+    crlf = pCrlf;
+    lf = pLf;
+    cr = pCr;
+    examinedBytes = pExaminedBytes;
+    complete = pComplete;
+  }
+
+  public long getCrlf()
+  {
+    return crlf;
+  }
+
+  public long getLf()
+  {
+    return lf;
+  }
+
+  public long getCr()
+  {
+    return cr;
+  }
+
+  /**
+   * @return amount of bytes the separators were counted in
+   */
+  public long getExaminedBytes()
+  {
+    return examinedBytes;
+  }
+
+  /**
+   * @return true if the whole file was examined, false if the counts are a sample of its head
+   */
+  public boolean isComplete()
+  {
+    return complete;
+  }
+
+  /**
+   * @return true if more than one kind of line separator was found
+   */
+  public boolean isMixed()
+  {
+    return (crlf > 0 ? 1 : 0) + (lf > 0 ? 1 : 0) + (cr > 0 ? 1 : 0) > 1;
+  }
+
+  /**
+   * @return the most frequent line separator ("\r\n", "\n" or "\r"), null if the examined part did not contain a line separator
+   */
+  @Nullable
+  public String getDominant()
+  {
+    if (crlf == 0 && lf == 0 && cr == 0)
+      return null;
+    if (crlf >= lf && crlf >= cr)
+      return "\r\n";
+    return lf >= cr ? "\n" : "\r";
+  }
+
+  @NotNull
+  @Override
+  public String toString()
+  {
+    String dominant = getDominant();
+    if (dominant == null)
+      return "none";
+    if (!isMixed())
+      return _getName(dominant);
+    return "mixed (" + crlf + " CRLF, " + lf + " LF, " + cr + " CR)";
+  }
+
+  @NotNull
+  private static String _getName(@NotNull String pSeparator)
+  {
+    return "\r\n".equals(pSeparator) ? "CRLF" : "\n".equals(pSeparator) ? "LF" : "CR";
+  }
+}
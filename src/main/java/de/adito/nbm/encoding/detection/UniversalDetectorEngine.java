@@ -0,0 +1,69 @@
+package de.adito.nbm.encoding.detection;
+
+import org.jetbrains.annotations.NotNull;
+import org.mozilla.universalchardet.UniversalDetector;
+import org.openide.util.lookup.ServiceProvider;
+
+import java.nio.charset.Charset;
+import java.util.Optional;
+
+/**
+ * Statistical detection by UCharDet (juniversalchardet), knows the charsets listed in {@link org.mozilla.universalchardet.Constants}
+ */
+@ServiceProvider(service = IEncodingDetector.class, position = 200)
+public class UniversalDetectorEngine implements IEncodingDetector
+{
+
+  @NotNull
+  @Override
+  public String getName()
+  {
+    return "juniversalchardet";
+  }
+
+  @NotNull
+  @Override
+  public Cost getCost()
+  {
+    return Cost.HIGH;
+  }
+
+  @NotNull
+  @Override
+  public Accuracy getAccuracy()
+  {
+    return Accuracy.STATISTICAL;
+  }
+
+  @NotNull
+  @Override
+  public IDetectionSession createSession()
+  {
+    UniversalDetector detector = new UniversalDetector(null);
+    return new IDetectionSession()
+    {
+      @Override
+      public void feed(@NotNull byte[] pBuffer, int pLength)
+      {
+        detector.handleData(pBuffer, 0, pLength);
+      }
+
+      @Override
+      public boolean isDone()
+      {
+        return detector.isDone();
+      }
+
+      @NotNull
+      @Override
+      public Optional<Charset> finish()
+      {
+        detector.dataEnd();
+        String detectedCharset = detector.getDetectedCharset();
+        if (detectedCharset == null || !Charset.isSupported(detectedCharset))
+          return Optional.empty();
+        return Optional.of(Charset.forName(detectedCharset));
+      }
+    };
+  }
+}
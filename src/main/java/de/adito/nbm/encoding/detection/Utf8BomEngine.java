@@ -0,0 +1,168 @@
+package de.adito.nbm.encoding.detection;
+
+import org.jetbrains.annotations.*;
+import org.openide.util.lookup.ServiceProvider;
+
+import java.nio.charset.*;
+import java.util.Optional;
+
+/**
+ * Detects Unicode files by their byte order mark and UTF-8 files without a BOM by validating the UTF-8 sequences. A file is reported as
+ * UTF-8 once enough multi-byte sequences were seen without an invalid one, text in other encodings hardly ever forms more than a few valid
+ * sequences in a row. Pure ASCII files are not reported, as they are valid in almost every encoding. An escape character makes the engine
+ * give up immediately, because it introduces the escape sequences of the 7-bit ISO-2022 encodings
+ */
+@ServiceProvider(service = IEncodingDetector.class, position = 100)
+public class Utf8BomEngine implements IEncodingDetector
+{
+
+  private static final int BOM_LENGTH = 4;
+  private static final int DECISIVE_SEQUENCES = 16;
+  private static final int ESCAPE = 0x1B;
+
+  @NotNull
+  @Override
+  public String getName()
+  {
+    return "UTF-8/BOM";
+  }
+
+  @NotNull
+  @Override
+  public Cost getCost()
+  {
+    return Cost.LOW;
+  }
+
+  @NotNull
+  @Override
+  public Accuracy getAccuracy()
+  {
+    return Accuracy.HIGH;
+  }
+
+  @NotNull
+  @Override
+  public IDetectionSession createSession()
+  {
+    return new _Session();
+  }
+
+  /**
+   * @param pHead   first bytes of the stream
+   * @param pLength amount of valid bytes in pHead
+   * @return the charset indicated by a BOM, null if the stream does not start with a BOM
+   */
+  @Nullable
+  private static Charset _getBomCharset(@NotNull byte[] pHead, int pLength)
+  {
+    int[] head = new int[BOM_LENGTH];
+    for (int i = 0; i < pLength; i++)
+      head[i] = pHead[i] & 0xFF;
+    if (pLength >= 3 && head[0] == 0xEF && head[1] == 0xBB && head[2] == 0xBF)
+      return StandardCharsets.UTF_8;
+    if (pLength >= 4 && head[0] == 0x00 && head[1] == 0x00 && head[2] == 0xFE && head[3] == 0xFF)
+      return _forNameOrNull("UTF-32BE");
+    if (pLength >= 4 && head[0] == 0xFF && head[1] == 0xFE && head[2] == 0x00 && head[3] == 0x00)
+      return _forNameOrNull("UTF-32LE");
+    if (pLength >= 2 && head[0] == 0xFE && head[1] == 0xFF)
+      return StandardCharsets.UTF_16BE;
+    if (pLength >= 2 && head[0] == 0xFF && head[1] == 0xFE)
+      return StandardCharsets.UTF_16LE;
+    return null;
+  }
+
+  @Nullable
+  private static Charset _forNameOrNull(@NotNull String pName)
+  {
+    return Charset.isSupported(pName) ? Charset.forName(pName) : null;
+  }
+
+  /**
+   * Collects the first bytes for the BOM and validates the UTF-8 sequences across block boundaries
+   */
+  private static class _Session implements IDetectionSession
+  {
+    private final byte[] head = new byte[BOM_LENGTH];
+    private int headLength;
+    private boolean bomChecked;
+    private Charset bomCharset;
+    private boolean declined;
+    private int multiByteSequences;
+    private int pendingContinuations;
+    private int nextMin = 0x80;
+    private int nextMax = 0xBF;
+
+    @Override
+    public void feed(@NotNull byte[] pBuffer, int pLength)
+    {
+      for (int i = 0; i < pLength && headLength < BOM_LENGTH; i++)
+        head[headLength++] = pBuffer[i];
+      if (!bomChecked && headLength == BOM_LENGTH)
+        _checkBom();
+      for (int i = 0; i < pLength && !declined; i++)
+        _validate(pBuffer[i] & 0xFF);
+    }
+
+    @Override
+    public boolean isDone()
+    {
+      return bomCharset != null || (bomChecked && (declined || multiByteSequences >= DECISIVE_SEQUENCES));
+    }
+
+    @NotNull
+    @Override
+    public Optional<Charset> finish()
+    {
+      if (!bomChecked)
+        _checkBom();
+      if (bomCharset != null)
+        return Optional.of(bomCharset);
+      if (declined || pendingContinuations > 0 || multiByteSequences == 0)
+        return Optional.empty();
+      return Optional.of(StandardCharsets.UTF_8);
+    }
+
+    private void _checkBom()
+    {
+      bomChecked = true;
+      bomCharset = _getBomCharset(head, headLength);
+    }
+
+    private void _validate(int pByte)
+    {
+      if (pendingContinuations > 0)
+      {
+        if (pByte < nextMin || pByte > nextMax)
+        {
+          declined = true;
+          return;
+        }
+        nextMin = 0x80;
+        nextMax = 0xBF;
+        if (--pendingContinuations == 0)
+          multiByteSequences++;
+      }
+      else if (pByte >= 0xC2 && pByte <= 0xDF)
+        pendingContinuations = 1;
+      else if (pByte >= 0xE0 && pByte <= 0xEF)
+      {
+        pendingContinuations = 2;
+        if (pByte == 0xE0)
+          nextMin = 0xA0; // overlong
+        else if (pByte == 0xED)
+          nextMax = 0x9F; // surrogates
+      }
+      else if (pByte >= 0xF0 && pByte <= 0xF4)
+      {
+        pendingContinuations = 3;
+        if (pByte == 0xF0)
+          nextMin = 0x90; // overlong
+        else if (pByte == 0xF4)
+          nextMax = 0x8F; // above U+10FFFF
+      }
+      else if (pByte >= 0x80 || pByte == ESCAPE)
+        declined = true;
+    }
+  }
+}
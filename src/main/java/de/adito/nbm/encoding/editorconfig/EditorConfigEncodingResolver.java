@@ -0,0 +1,91 @@
+package de.adito.nbm.encoding.editorconfig;
+
+import de.adito.nbm.encoding.FolderFileCache;
+import org.jetbrains.annotations.*;
+import org.openide.filesystems.FileObject;
+
+import javax.swing.event.ChangeListener;
+import java.io.InputStream;
+import java.nio.charset.*;
+import java.util.List;
+
+/**
+ * Determines the encoding of a file by the "charset" property of the .editorconfig files in the directory of the file and its parent
+ * directories up to the repository or project root. The parsed .editorconfig files are cached per directory, the cache entry of a directory
+ * is invalidated as soon as an .editorconfig file in that directory is created, changed, renamed or deleted
+ */
+public class EditorConfigEncodingResolver
+{
+
+  static final String EDITORCONFIG_FILE_NAME = ".editorconfig";
+
+  private final FolderFileCache<EditorConfigFile> configs = new FolderFileCache<>(EDITORCONFIG_FILE_NAME, 20000, (pFolder, pFile) -> {
+    try (InputStream inputStream = pFile.getInputStream())
+    {
+      EditorConfigFile config = EditorConfigFile.parse(pFolder.getPath(), inputStream);
+      // root files have to be kept even if they do not declare a charset, because they stop the lookup in the parent directories
+      return config.isEmpty() && !config.isRoot() ? null : config;
+    }
+  });
+
+  /**
+   * @param pListener notified after an .editorconfig file was created, changed, renamed or deleted
+   */
+  public void addChangeListener(@NotNull ChangeListener pListener)
+  {
+    configs.addChangeListener(pListener);
+  }
+
+  /**
+   * @param pFileObject file whose encoding should be determined
+   * @return the charset declared for the file in an .editorconfig file, null if no .editorconfig file declares a (supported) charset for it
+   */
+  @Nullable
+  public Charset getEncoding(@NotNull FileObject pFileObject)
+  {
+    List<EditorConfigFile> configChain = configs.getValues(pFileObject, EditorConfigFile::isRoot);
+
+    // the .editorconfig closest to the file has the highest priority, so apply the chain starting with the outermost file
+    String filePath = pFileObject.getPath();
+    String charset = null;
+    for (int i = configChain.size() - 1; i >= 0; i--)
+    {
+      String declaredCharset = configChain.get(i).getCharset(filePath);
+      if (declaredCharset != null)
+        charset = declaredCharset;
+    }
+    if (charset == null || EditorConfigFile.UNSET.equals(charset))
+      return null;
+    return _toCharset(charset);
+  }
+
+  /**
+   * Maps the charset values of the EditorConfig specification to a Charset. Values that are not part of the specification are accepted if the
+   * JRE knows a charset of that name
+   */
+  @Nullable
+  private static Charset _toCharset(@NotNull String pCharset)
+  {
+    switch (pCharset)
+    {
+      case "latin1":
+        return StandardCharsets.ISO_8859_1;
+      case "utf-8":
+      case "utf-8-bom":
+        return StandardCharsets.UTF_8;
+      case "utf-16be":
+        return StandardCharsets.UTF_16BE;
+      case "utf-16le":
+        return StandardCharsets.UTF_16LE;
+      default:
+        try
+        {
+          return Charset.isSupported(pCharset) ? Charset.forName(pCharset) : null;
+        }
+        catch (IllegalCharsetNameException pE)
+        {
+          return null;
+        }
+    }
+  }
+}
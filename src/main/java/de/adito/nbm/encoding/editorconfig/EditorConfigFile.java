@@ -0,0 +1,117 @@
+package de.adito.nbm.encoding.editorconfig;
+
+import org.jetbrains.annotations.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Parsed contents of a single .editorconfig file. Only the properties relevant for the encoding are kept, the section globs are compiled once
+ * when the file is parsed
+ */
+final class EditorConfigFile
+{
+
+  static final String UNSET = "unset";
+  private static final String ROOT_KEY = "root";
+  private static final String CHARSET_KEY = "charset";
+
+  private final String directoryPath;
+  private final boolean root;
+  private final List<_Section> sections;
+
+  private EditorConfigFile(@NotNull String pDirectoryPath, boolean pRoot, @NotNull List<_Section> pSections)
+  {
+    directoryPath = pDirectoryPath;
+    root = pRoot;
+    sections = pSections;
+  }
+
+  /**
+   * @param pDirectoryPath path of the directory that contains the .editorconfig file, as given by FileObject.getPath()
+   * @param pInputStream   contents of the .editorconfig file, is not closed by this method
+   * @return the parsed file
+   * @throws IOException if the stream cannot be read
+   */
+  @NotNull
+  static EditorConfigFile parse(@NotNull String pDirectoryPath, @NotNull InputStream pInputStream) throws IOException
+  {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(pInputStream, StandardCharsets.UTF_8));
+    boolean isRoot = false;
+    List<_Section> sections = new ArrayList<>();
+    _Section currentSection = null;
+    String line;
+    while ((line = reader.readLine()) != null)
+    {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#") || line.startsWith(";"))
+        continue;
+      if (line.startsWith("[") && line.endsWith("]"))
+      {
+        currentSection = new _Section(GlobPattern.compile(line.substring(1, line.length() - 1)));
+        sections.add(currentSection);
+        continue;
+      }
+      int separatorIndex = line.indexOf('=');
+      if (separatorIndex < 0)
+        continue;
+      String key = line.substring(0, separatorIndex).trim().toLowerCase(Locale.ROOT);
+      String value = line.substring(separatorIndex + 1).trim();
+      if (currentSection == null && ROOT_KEY.equals(key))
+        isRoot = Boolean.parseBoolean(value);
+      else if (currentSection != null && CHARSET_KEY.equals(key))
+        currentSection.charset = value.toLowerCase(Locale.ROOT);
+    }
+    // sections without a charset are irrelevant for the encoding, dropping them keeps the matching cheap
+    sections.removeIf(pSection -> pSection.charset == null);
+    return new EditorConfigFile(pDirectoryPath, isRoot, sections);
+  }
+
+  /**
+   * @return true if the file contains "root = true", in that case .editorconfig files in parent directories are not considered
+   */
+  boolean isRoot()
+  {
+    return root;
+  }
+
+  /**
+   * @return true if no section of this file declares a charset
+   */
+  boolean isEmpty()
+  {
+    return sections.isEmpty();
+  }
+
+  /**
+   * @param pFilePath path of the file, as given by FileObject.getPath()
+   * @return charset value of the last section that matches the file, {@link #UNSET} if the charset is explicitly unset, null if no section matches
+   */
+  @Nullable
+  String getCharset(@NotNull String pFilePath)
+  {
+    String relativePath = directoryPath.isEmpty() ? pFilePath : pFilePath.substring(directoryPath.length() + 1);
+    String charset = null;
+    for (_Section section : sections)
+    {
+      if (section.glob.matches(relativePath))
+        charset = section.charset;
+    }
+    return charset;
+  }
+
+  /**
+   * One section of the .editorconfig file, only the charset property is stored
+   */
+  private static final class _Section
+  {
+    private final GlobPattern glob;
+    private String charset;
+
+    private _Section(@NotNull GlobPattern pGlob)
+    {
+      glob = pGlob;
+    }
+  }
+}
@@ -0,0 +1,206 @@
+package de.adito.nbm.encoding.editorconfig;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.regex.Pattern;
+
+/**
+ * Compiles the section names of an .editorconfig file to regular expressions, following the glob semantics of the EditorConfig specification:
+ * <ul>
+ *   <li>{@code *} matches any string of characters, except path separators</li>
+ *   <li>{@code **} matches any string of characters</li>
+ *   <li>{@code ?} matches any single character, except path separators</li>
+ *   <li>{@code [name]} and {@code [!name]} match any single character in/not in name</li>
+ *   <li>{@code {s1,s2,s3}} matches any of the comma-separated strings, {@code {num1..num2}} any integer between num1 and num2</li>
+ * </ul>
+ * A glob without a path separator matches files in any subdirectory, a glob with a path separator is relative to the directory of the
+ * .editorconfig file.
+ */
+final class GlobPattern
+{
+
+  private static final int MAX_EXPANDED_RANGE = 1000;
+
+  private final Pattern pattern;
+
+  private GlobPattern(@NotNull Pattern pPattern)
+  {
+    pattern = pPattern;
+  }
+
+  /**
+   * @param pGlob section name of an .editorconfig file, without the enclosing brackets
+   * @return compiled pattern
+   */
+  @NotNull
+  static GlobPattern compile(@NotNull String pGlob)
+  {
+    String glob = pGlob;
+    StringBuilder regex = new StringBuilder();
+    if (glob.indexOf('/') < 0)
+      regex.append("(?:.*/)?");
+    else if (glob.startsWith("/"))
+      glob = glob.substring(1);
+    regex.append(_toRegex(glob));
+    return new GlobPattern(Pattern.compile(regex.toString()));
+  }
+
+  /**
+   * @param pRelativePath path of the file relative to the directory of the .editorconfig file, separated by "/"
+   * @return true if the path matches this glob
+   */
+  boolean matches(@NotNull String pRelativePath)
+  {
+    return pattern.matcher(pRelativePath).matches();
+  }
+
+  @NotNull
+  private static String _toRegex(@NotNull String pGlob)
+  {
+    StringBuilder regex = new StringBuilder();
+    int length = pGlob.length();
+    int i = 0;
+    while (i < length)
+    {
+      char c = pGlob.charAt(i);
+      switch (c)
+      {
+        case '\\':
+          if (i + 1 < length)
+            regex.append(Pattern.quote(String.valueOf(pGlob.charAt(++i))));
+          else
+            regex.append("\\\\");
+          break;
+        case '*':
+          if (i + 1 < length && pGlob.charAt(i + 1) == '*')
+          {
+            regex.append(".*");
+            i++;
+          }
+          else
+            regex.append("[^/]*");
+          break;
+        case '?':
+          regex.append("[^/]");
+          break;
+        case '[':
+          int classEnd = _findClosing(pGlob, i, '[', ']');
+          if (classEnd < 0)
+            regex.append("\\[");
+          else
+          {
+            regex.append(_toCharacterClass(pGlob.substring(i + 1, classEnd)));
+            i = classEnd;
+          }
+          break;
+        case '{':
+          int braceEnd = _findClosing(pGlob, i, '{', '}');
+          if (braceEnd < 0)
+            regex.append("\\{");
+          else
+          {
+            regex.append(_toAlternatives(pGlob.substring(i + 1, braceEnd)));
+            i = braceEnd;
+          }
+          break;
+        default:
+          regex.append(Pattern.quote(String.valueOf(c)));
+      }
+      i++;
+    }
+    return regex.toString();
+  }
+
+  @NotNull
+  private static String _toCharacterClass(@NotNull String pContent)
+  {
+    StringBuilder characterClass = new StringBuilder("[");
+    String content = pContent;
+    if (content.startsWith("!"))
+    {
+      characterClass.append('^');
+      content = content.substring(1);
+    }
+    for (char c : content.toCharArray())
+    {
+      if (c == '-')
+        characterClass.append('-');
+      else if (Character.isLetterOrDigit(c))
+        characterClass.append(c);
+      else
+        characterClass.append('\\').append(c);
+    }
+    return characterClass.append(']').toString();
+  }
+
+  @NotNull
+  private static String _toAlternatives(@NotNull String pContent)
+  {
+    String[] range = pContent.split("\\.\\.", -1);
+    if (range.length == 2 && range[0].matches("[+-]?\\d+") && range[1].matches("[+-]?\\d+"))
+      return _toNumberRange(Integer.parseInt(range[0]), Integer.parseInt(range[1]));
+    int depth = 0;
+    int start = 0;
+    StringBuilder alternatives = new StringBuilder("(?:");
+    boolean hasComma = false;
+    for (int i = 0; i < pContent.length(); i++)
+    {
+      char c = pContent.charAt(i);
+      if (c == '\\')
+        i++;
+      else if (c == '{')
+        depth++;
+      else if (c == '}')
+        depth--;
+      else if (c == ',' && depth == 0)
+      {
+        alternatives.append(_toRegex(pContent.substring(start, i))).append('|');
+        start = i + 1;
+        hasComma = true;
+      }
+    }
+    // a single element in braces is no alternative, the braces are matched literally
+    if (!hasComma)
+      return Pattern.quote("{") + _toRegex(pContent) + Pattern.quote("}");
+    return alternatives.append(_toRegex(pContent.substring(start))).append(')').toString();
+  }
+
+  @NotNull
+  private static String _toNumberRange(int pFrom, int pTo)
+  {
+    int min = Math.min(pFrom, pTo);
+    int max = Math.max(pFrom, pTo);
+    // larger ranges are not expanded, these match any number
+    if ((long) max - min > MAX_EXPANDED_RANGE)
+      return "[+-]?\\d+";
+    StringBuilder numbers = new StringBuilder("(?:");
+    for (int number = min; number <= max; number++)
+    {
+      if (number > min)
+        numbers.append('|');
+      numbers.append(Pattern.quote(String.valueOf(number)));
+    }
+    return numbers.append(')').toString();
+  }
+
+  /**
+   * @return index of the closing character that belongs to the opening character at pStart, -1 if there is none
+   */
+  private static int _findClosing(@NotNull String pGlob, int pStart, char pOpening, char pClosing)
+  {
+    int depth = 0;
+    for (int i = pStart; i < pGlob.length(); i++)
+    {
+      char c = pGlob.charAt(i);
+      if (c == '\\')
+        i++;
+      else if (c == '/' && pOpening == '[')
+        return -1;
+      else if (c == pOpening)
+        depth++;
+      else if (c == pClosing && --depth == 0)
+        return i;
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,235 @@
+package de.adito.nbm.encoding.index;
+
+import com.google.common.hash.*;
+import org.jetbrains.annotations.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Precomputed encodings of the files of a repository, written by {@link EncodingIndexWriter} (e.g. by the batch detector in a CI build) and
+ * checked into the repository root as {@link #FILE_NAME}. The entries have a fixed size and are sorted by the hash of their path, so a file
+ * is found by a binary search without parsing the index. An entry is only trusted if the size of the file and the hash of its whole
+ * contents still match, the file is not read before the path and size matched. Files larger than {@link #MAX_FILE_SIZE} are not indexed,
+ * hashing them would take longer than detecting their encoding.
+ * <p>
+ * Layout: the magic bytes, the amount of charsets, the charset names (each a short length and US-ASCII bytes), the amount of entries and
+ * the entries. An entry consists of the path hash, the file size, the content hash and the index of the charset, -1 if no charset was
+ * detected
+ */
+public final class EncodingIndex
+{
+
+  public static final String FILE_NAME = ".encoding-index";
+  public static final int MAX_FILE_SIZE = 8 * 1024 * 1024;
+  static final byte[] MAGIC = {'E', 'N', 'C', 'I', 'D', 'X', 0, 2};
+  static final int ENTRY_SIZE = 8 + 8 + 8 + 4;
+  static final int NO_CHARSET = -1;
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+  private static final int HASH_BUFFER_SIZE = 8192;
+
+  private final ByteBuffer buffer;
+  private final int entriesStart;
+  private final int entryCount;
+  private final Charset[] charsets;
+
+  private EncodingIndex(@NotNull ByteBuffer pBuffer) throws IOException
+  {
+    buffer = pBuffer;
+    try
+    {
+      byte[] magic = new byte[MAGIC.length];
+      buffer.get(magic);
+      if (!Arrays.equals(magic, MAGIC))
+        throw new IOException("not an encoding index");
+      charsets = new Charset[buffer.getInt()];
+      for (int i = 0; i < charsets.length; i++)
+      {
+        byte[] name = new byte[buffer.getShort()];
+        buffer.get(name);
+        charsets[i] = _toCharset(new String(name, StandardCharsets.US_ASCII));
+      }
+      entryCount = buffer.getInt();
+      entriesStart = buffer.position();
+      if (entryCount < 0 || buffer.remaining() != (long) entryCount * ENTRY_SIZE)
+        throw new IOException("encoding index is truncated");
+    }
+    catch (BufferUnderflowException | NegativeArraySizeException pE)
+    {
+      throw new IOException("encoding index is truncated", pE);
+    }
+  }
+
+  /**
+   * Reads the index into memory with a single read. The file is deliberately not memory mapped, because a mapping would keep the file locked
+   * on Windows and a checkout could not replace it anymore
+   *
+   * @param pPath index file
+   * @return the index
+   * @throws IOException if the file cannot be read or is no valid index
+   */
+  @NotNull
+  public static EncodingIndex read(@NotNull Path pPath) throws IOException
+  {
+    return read(Files.readAllBytes(pPath));
+  }
+
+  /**
+   * @param pBytes contents of an index file
+   * @return the index
+   * @throws IOException if the bytes are no valid index
+   */
+  @NotNull
+  public static EncodingIndex read(@NotNull byte[] pBytes) throws IOException
+  {
+    return new EncodingIndex(ByteBuffer.wrap(pBytes));
+  }
+
+  /**
+   * @return amount of files in the index
+   */
+  public int size()
+  {
+    return entryCount;
+  }
+
+  /**
+   * @param pRelativePath path of the file relative to the folder of the index, separated by slashes
+   * @param pSize         current size of the file
+   * @return the entry of the file, null if the file is not part of the index, its size changed or its charset is not supported by this JRE.
+   * The content hash of the entry has to be checked before the entry is trusted
+   */
+  @Nullable
+  public Entry find(@NotNull String pRelativePath, long pSize)
+  {
+    long pathHash = hashPath(pRelativePath);
+    int low = 0;
+    int high = entryCount - 1;
+    while (low <= high)
+    {
+      int middle = (low + high) >>> 1;
+      long middleHash = _getPathHash(middle);
+      if (middleHash < pathHash)
+        low = middle + 1;
+      else if (middleHash > pathHash)
+        high = middle - 1;
+      else
+      {
+        // path hashes may collide, so check all entries with the same hash
+        while (middle > 0 && _getPathHash(middle - 1) == pathHash)
+          middle--;
+        for (int i = middle; i < entryCount && _getPathHash(i) == pathHash; i++)
+        {
+          Entry entry = _getEntry(i, pSize);
+          if (entry != null)
+            return entry;
+        }
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param pRelativePath path of a file relative to the folder of the index, separated by slashes
+   * @return hash of the path as stored in the index
+   */
+  public static long hashPath(@NotNull String pRelativePath)
+  {
+    return HASH_FUNCTION.hashString(pRelativePath, StandardCharsets.UTF_8).asLong();
+  }
+
+  /**
+   * @param pContents complete contents of the file
+   * @return hash of the contents as stored in the index
+   */
+  public static long hashContents(@NotNull byte[] pContents)
+  {
+    return HASH_FUNCTION.hashBytes(pContents).asLong();
+  }
+
+  /**
+   * Reads the stream to its end in chunks of a fixed size, so the contents are never held in memory completely
+   *
+   * @param pIn stream over the complete contents of the file, not closed
+   * @return hash of the contents as stored in the index, the same as {@link #hashContents(byte[])} of the read bytes
+   * @throws IOException if the stream cannot be read
+   */
+  public static long hashContents(@NotNull InputStream pIn) throws IOException
+  {
+    Hasher hasher = HASH_FUNCTION.newHasher();
+    byte[] buffer = new byte[HASH_BUFFER_SIZE];
+    int read;
+    while ((read = pIn.read(buffer)) >= 0)
+      hasher.putBytes(buffer, 0, read);
+    return hasher.hash().asLong();
+  }
+
+  private long _getPathHash(int pEntry)
+  {
+    return buffer.getLong(entriesStart + pEntry * ENTRY_SIZE);
+  }
+
+  @Nullable
+  private Entry _getEntry(int pEntry, long pSize)
+  {
+    int offset = entriesStart + pEntry * ENTRY_SIZE;
+    if (buffer.getLong(offset + 8) != pSize)
+      return null;
+    int charsetIndex = buffer.getInt(offset + 24);
+    if (charsetIndex == NO_CHARSET)
+      return new Entry(buffer.getLong(offset + 16), null);
+    if (charsetIndex < 0 || charsetIndex >= charsets.length || charsets[charsetIndex] == null)
+      return null;
+    return new Entry(buffer.getLong(offset + 16), charsets[charsetIndex]);
+  }
+
+  @Nullable
+  private static Charset _toCharset(@NotNull String pName)
+  {
+    try
+    {
+      return Charset.isSupported(pName) ? Charset.forName(pName) : null;
+    }
+    catch (IllegalCharsetNameException pE)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Entry of a single file
+   */
+  public static final class Entry
+  {
+    private final long contentHash;
+    private final Charset encoding;
+
+    private Entry(long pContentHash, @Nullable Charset pEncoding)
+    {
+      contentHash = pContentHash;
+      encoding = pEncoding;
+    }
+
+    /**
+     * @param pContentHash hash of the current contents of the file, see {@link #hashContents(byte[])}
+     * @return true if the entry still describes the file
+     */
+    public boolean matches(long pContentHash)
+    {
+      return contentHash == pContentHash;
+    }
+
+    /**
+     * @return the charset that was detected when the index was written, empty if none was detected (e.g. pure ASCII)
+     */
+    @NotNull
+    public Optional<Charset> getEncoding()
+    {
+      return Optional.ofNullable(encoding);
+    }
+  }
+}
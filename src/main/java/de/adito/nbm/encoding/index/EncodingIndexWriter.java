@@ -0,0 +1,97 @@
+package de.adito.nbm.encoding.index;
+
+import org.jetbrains.annotations.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Collects the encodings of files and writes them as an {@link EncodingIndex}. Files may be added from several threads at once
+ */
+public final class EncodingIndexWriter
+{
+
+  private final List<_Entry> entries = new ArrayList<>();
+
+  /**
+   * @param pRelativePath path of the file relative to the folder of the index, separated by slashes
+   * @param pSize         size of the file
+   * @param pContentHash  hash of the contents of the file, see {@link EncodingIndex#hashContents(byte[])}
+   * @param pEncoding     detected charset, null if none was detected
+   */
+  public synchronized void add(@NotNull String pRelativePath, long pSize, long pContentHash, @Nullable Charset pEncoding)
+  {
+    entries.add(new _Entry(EncodingIndex.hashPath(pRelativePath), pSize, pContentHash, pEncoding));
+  }
+
+  /**
+   * Writes the index to a temporary file next to the given one first, so IDEs reading the index never see a partially written file
+   *
+   * @param pPath index file to write
+   * @throws IOException if the file cannot be written
+   */
+  public synchronized void write(@NotNull Path pPath) throws IOException
+  {
+    entries.sort(Comparator.comparingLong(pEntry -> pEntry.pathHash));
+    List<String> charsetNames = new ArrayList<>();
+    Map<Charset, Integer> charsetIndexes = new HashMap<>();
+    for (_Entry entry : entries)
+    {
+      if (entry.encoding != null && !charsetIndexes.containsKey(entry.encoding))
+      {
+        charsetIndexes.put(entry.encoding, charsetNames.size());
+        charsetNames.add(entry.encoding.name());
+      }
+    }
+
+    Path tempFile = Files.createTempFile(pPath.toAbsolutePath().getParent(), EncodingIndex.FILE_NAME, ".tmp");
+    try
+    {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile))))
+      {
+        out.write(EncodingIndex.MAGIC);
+        out.writeInt(charsetNames.size());
+        for (String charsetName : charsetNames)
+        {
+          byte[] name = charsetName.getBytes(StandardCharsets.US_ASCII);
+          out.writeShort(name.length);
+          out.write(name);
+        }
+        out.writeInt(entries.size());
+        for (_Entry entry : entries)
+        {
+          out.writeLong(entry.pathHash);
+          out.writeLong(entry.size);
+          out.writeLong(entry.contentHash);
+          out.writeInt(entry.encoding == null ? EncodingIndex.NO_CHARSET : charsetIndexes.get(entry.encoding));
+        }
+      }
+      Files.move(tempFile, pPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+    finally
+    {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  /**
+   * A single file of the index
+   */
+  private static final class _Entry
+  {
+    private final long pathHash;
+    private final long size;
+    private final long contentHash;
+    private final Charset encoding;
+
+    private _Entry(long pPathHash, long pSize, long pContentHash, @Nullable Charset pEncoding)
+    {
+      pathHash = pPathHash;
+      size = pSize;
+      contentHash = pContentHash;
+      encoding = pEncoding;
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package de.adito.nbm.encoding.options;
 
 import de.adito.nbm.encoding.CharDetEncodingProvider;
+import de.adito.nbm.encoding.detection.BinaryContentFilter;
 import de.adito.nbm.encoding.statusline.StatusLineEncodingProvider;
 import de.adito.swing.TableLayoutUtil;
 import info.clearthought.layout.TableLayout;
@@ -16,6 +17,8 @@ public class EncodingOptionsPanel extends JPanel
 {
 
   private final JComboBox<String> encodingsComboBox;
+  private final JCheckBox saveAllCheckBox = new JCheckBox("Save all modified files instead of only the converted file");
+  private final JLabel skippedBinaryFilesLabel = new JLabel();
 
   public EncodingOptionsPanel()
   {
@@ -24,11 +27,14 @@ public class EncodingOptionsPanel extends JPanel
     encodingsComboBox = new JComboBox<>(supportedEncodings.toArray(new String[0]));
     encodingsComboBox.setSelectedItem(NbPreferences.forModule(EncodingOptionsPanel.class)
                                           .get(CharDetEncodingProvider.ENCODING_KEY, CharDetEncodingProvider.DEFAULT_DEFAULT_ENCODING));
+    saveAllCheckBox.setSelected(NbPreferences.forModule(EncodingOptionsPanel.class).getBoolean(StatusLineEncodingProvider.SAVE_ALL_KEY, false));
     double fill = TableLayout.FILL;
     double pref = TableLayout.PREFERRED;
     final double gap = 15;
     double[] cols = {gap, pref, gap, fill, gap};
     double[] rows = {gap,
+                     pref,
+                     gap,
                      pref,
                      gap,
                      pref,
@@ -37,6 +43,20 @@ public class EncodingOptionsPanel extends JPanel
     TableLayoutUtil tlu = new TableLayoutUtil(this);
     tlu.add(1, 1, new JLabel("Default encoding"));
     tlu.add(3, 1, encodingsComboBox);
+    tlu.add(1, 3, new JLabel("Before changing the encoding"));
+    tlu.add(3, 3, saveAllCheckBox);
+    tlu.add(1, 5, new JLabel("Skipped binary files"));
+    tlu.add(3, 5, skippedBinaryFilesLabel);
+    updateSkippedBinaryFiles();
+  }
+
+  /**
+   * shows the current amount of skipped binary files, the panel is created once and shown again and again
+   */
+  void updateSkippedBinaryFiles()
+  {
+    skippedBinaryFilesLabel.setText(BinaryContentFilter.getRejectedByName() + " by extension, " + BinaryContentFilter.getRejectedByContent() +
+                                        " by content (since the IDE was started)");
   }
 
   /**
@@ -64,4 +84,28 @@ public class EncodingOptionsPanel extends JPanel
   {
     return encodingsComboBox;
   }
+
+  /**
+   * @param pSaveAll true if all modified files should be saved before the encoding of a file is changed
+   */
+  void setSaveAll(boolean pSaveAll)
+  {
+    saveAllCheckBox.setSelected(pSaveAll);
+  }
+
+  /**
+   * @return true if all modified files should be saved before the encoding of a file is changed
+   */
+  boolean isSaveAll()
+  {
+    return saveAllCheckBox.isSelected();
+  }
+
+  /**
+   * @return the JCheckBox used for displaying the saveAll option
+   */
+  JCheckBox getSaveAllCheckBox()
+  {
+    return saveAllCheckBox;
+  }
 }
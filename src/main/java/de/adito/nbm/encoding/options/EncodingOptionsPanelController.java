@@ -1,6 +1,7 @@
 package de.adito.nbm.encoding.options;
 
 import de.adito.nbm.encoding.CharDetEncodingProvider;
+import de.adito.nbm.encoding.statusline.StatusLineEncodingProvider;
 import org.netbeans.spi.options.OptionsPanelController;
 import org.openide.util.*;
 
@@ -18,6 +19,7 @@ public class EncodingOptionsPanelController extends OptionsPanelController
   private final Preferences preferences;
   private final EncodingOptionsPanel encodingOptionsPanel;
   private String bufferValue;
+  private boolean saveAllBufferValue;
 
   public EncodingOptionsPanelController()
   {
@@ -30,6 +32,9 @@ public class EncodingOptionsPanelController extends OptionsPanelController
   {
     bufferValue = preferences.get(CharDetEncodingProvider.ENCODING_KEY, CharDetEncodingProvider.DEFAULT_DEFAULT_ENCODING);
     encodingOptionsPanel.setEncoding(bufferValue);
+    saveAllBufferValue = preferences.getBoolean(StatusLineEncodingProvider.SAVE_ALL_KEY, false);
+    encodingOptionsPanel.setSaveAll(saveAllBufferValue);
+    encodingOptionsPanel.updateSkippedBinaryFiles();
   }
 
   @Override
@@ -37,6 +42,8 @@ public class EncodingOptionsPanelController extends OptionsPanelController
   {
     preferences.put(CharDetEncodingProvider.ENCODING_KEY, encodingOptionsPanel.getEncoding());
     bufferValue = encodingOptionsPanel.getEncoding();
+    preferences.putBoolean(StatusLineEncodingProvider.SAVE_ALL_KEY, encodingOptionsPanel.isSaveAll());
+    saveAllBufferValue = encodingOptionsPanel.isSaveAll();
   }
 
   @Override
@@ -54,7 +61,7 @@ public class EncodingOptionsPanelController extends OptionsPanelController
   @Override
   public boolean isChanged()
   {
-    return !bufferValue.equals(encodingOptionsPanel.getEncoding());
+    return !bufferValue.equals(encodingOptionsPanel.getEncoding()) || saveAllBufferValue != encodingOptionsPanel.isSaveAll();
   }
 
   @Override
@@ -73,11 +80,13 @@ public class EncodingOptionsPanelController extends OptionsPanelController
   public void addPropertyChangeListener(PropertyChangeListener l)
   {
     encodingOptionsPanel.getEncodingsComboBox().addPropertyChangeListener(l);
+    encodingOptionsPanel.getSaveAllCheckBox().addPropertyChangeListener(l);
   }
 
   @Override
   public void removePropertyChangeListener(PropertyChangeListener l)
   {
     encodingOptionsPanel.getEncodingsComboBox().removePropertyChangeListener(l);
+    encodingOptionsPanel.getSaveAllCheckBox().removePropertyChangeListener(l);
   }
 }
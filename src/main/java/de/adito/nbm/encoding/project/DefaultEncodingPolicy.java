@@ -0,0 +1,171 @@
+package de.adito.nbm.encoding.project;
+
+import com.google.common.cache.*;
+import de.adito.nbm.encoding.CharDetEncodingProvider;
+import de.adito.nbm.encoding.options.EncodingOptionsPanel;
+import org.jetbrains.annotations.*;
+import org.netbeans.api.project.*;
+import org.netbeans.api.project.ui.OpenProjects;
+import org.netbeans.spi.project.ProjectManagerImplementation;
+import org.openide.filesystems.FileObject;
+import org.openide.util.*;
+
+import java.beans.PropertyChangeListener;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.prefs.*;
+
+/**
+ * Snapshot of the default encodings, globally and per project. The preferences are only read when they change and the owning project of a
+ * folder is only looked up once, so asking for the default encoding of a file does neither touch the preferences nor the FileOwnerQuery.
+ * <p>
+ * A project may either declare its own default encoding (a charset name or {@link CharDetEncodingProvider#NO_DEFAULT_ENCODING}) or inherit
+ * the global default encoding from the options
+ */
+public class DefaultEncodingPolicy
+{
+
+  private final Preferences globalPreferences = NbPreferences.forModule(EncodingOptionsPanel.class);
+  private final Cache<String, Optional<Project>> owners = CacheBuilder.newBuilder().maximumSize(50000).build();
+  private final Map<Project, _ProjectPolicy> projectPolicies = new ConcurrentHashMap<>();
+  private final List<Consumer<FileObject>> changeListeners = new CopyOnWriteArrayList<>();
+  private final PreferenceChangeListener globalPreferenceListener = this::_globalPreferenceChanged;
+  private final PropertyChangeListener openProjectsListener = pEvent -> {
+    if (OpenProjects.PROPERTY_OPEN_PROJECTS.equals(pEvent.getPropertyName()))
+      _openProjectsChanged();
+  };
+  private final boolean projectsAvailable;
+  private volatile String globalDefaultEncoding;
+
+  public DefaultEncodingPolicy()
+  {
+    // outside of the IDE (e.g. in tests) there is no project infrastructure, every file is treated as not being part of a project then
+    projectsAvailable = Lookup.getDefault().lookup(ProjectManagerImplementation.class) != null;
+    globalDefaultEncoding = globalPreferences.get(CharDetEncodingProvider.ENCODING_KEY, CharDetEncodingProvider.DEFAULT_DEFAULT_ENCODING);
+    globalPreferences.addPreferenceChangeListener(WeakListeners.create(PreferenceChangeListener.class, globalPreferenceListener, globalPreferences));
+    OpenProjects openProjects = OpenProjects.getDefault();
+    openProjects.addPropertyChangeListener(WeakListeners.propertyChange(openProjectsListener, openProjects));
+  }
+
+  /**
+   * @param pFileObject file or folder
+   * @return the default encoding of the project that owns the file, the global default encoding if the file is not part of a project or the
+   * project inherits the default encoding. {@link CharDetEncodingProvider#NO_DEFAULT_ENCODING} if no default encoding should be used
+   */
+  @NotNull
+  public String getDefaultEncoding(@NotNull FileObject pFileObject)
+  {
+    Project project = _getOwner(pFileObject);
+    if (project == null)
+      return globalDefaultEncoding;
+    String projectDefaultEncoding = projectPolicies.computeIfAbsent(project, _ProjectPolicy::new).defaultEncoding;
+    return projectDefaultEncoding == null ? globalDefaultEncoding : projectDefaultEncoding;
+  }
+
+  /**
+   * @param pProject project
+   * @return the default encoding set for the project, null if the project inherits the global default encoding
+   */
+  @Nullable
+  public static String getProjectDefaultEncoding(@NotNull Project pProject)
+  {
+    return _getPreferences(pProject).get(CharDetEncodingProvider.ENCODING_KEY, null);
+  }
+
+  /**
+   * Stores the default encoding of the project in the shared project preferences
+   *
+   * @param pProject         project
+   * @param pDefaultEncoding default encoding of the project, null if the project should inherit the global default encoding
+   */
+  public static void setProjectDefaultEncoding(@NotNull Project pProject, @Nullable String pDefaultEncoding)
+  {
+    Preferences preferences = _getPreferences(pProject);
+    if (pDefaultEncoding == null)
+      preferences.remove(CharDetEncodingProvider.ENCODING_KEY);
+    else
+      preferences.put(CharDetEncodingProvider.ENCODING_KEY, pDefaultEncoding);
+  }
+
+  /**
+   * @param pListener called with the directory of the project whose default encoding changed, or with null if the global default encoding
+   *                  changed
+   */
+  public void addChangeListener(@NotNull Consumer<FileObject> pListener)
+  {
+    changeListeners.add(pListener);
+  }
+
+  @Nullable
+  private Project _getOwner(@NotNull FileObject pFileObject)
+  {
+    FileObject folder = pFileObject.isFolder() ? pFileObject : pFileObject.getParent();
+    if (folder == null || !projectsAvailable)
+      return null;
+    try
+    {
+      return owners.get(folder.getPath(), () -> Optional.ofNullable(FileOwnerQuery.getOwner(folder))).orElse(null);
+    }
+    catch (ExecutionException pE)
+    {
+      return null;
+    }
+  }
+
+  private void _globalPreferenceChanged(@NotNull PreferenceChangeEvent pEvent)
+  {
+    if (!CharDetEncodingProvider.ENCODING_KEY.equals(pEvent.getKey()))
+      return;
+    globalDefaultEncoding = globalPreferences.get(CharDetEncodingProvider.ENCODING_KEY, CharDetEncodingProvider.DEFAULT_DEFAULT_ENCODING);
+    _fireChanged(null);
+  }
+
+  /**
+   * Opening or closing projects may change the owner of folders (e.g. nested projects), so the owners have to be looked up again
+   */
+  private void _openProjectsChanged()
+  {
+    owners.invalidateAll();
+    Set<Project> openProjects = new HashSet<>(Arrays.asList(OpenProjects.getDefault().getOpenProjects()));
+    projectPolicies.keySet().removeIf(pProject -> !openProjects.contains(pProject));
+  }
+
+  private void _fireChanged(@Nullable FileObject pProjectDirectory)
+  {
+    for (Consumer<FileObject> listener : changeListeners)
+      listener.accept(pProjectDirectory);
+  }
+
+  @NotNull
+  private static Preferences _getPreferences(@NotNull Project pProject)
+  {
+    return ProjectUtils.getPreferences(pProject, EncodingOptionsPanel.class, true);
+  }
+
+  /**
+   * Default encoding of a single project, kept up to date by listening to the project preferences
+   */
+  private class _ProjectPolicy implements PreferenceChangeListener
+  {
+    private final Project project;
+    private volatile String defaultEncoding;
+
+    private _ProjectPolicy(@NotNull Project pProject)
+    {
+      project = pProject;
+      Preferences preferences = _getPreferences(pProject);
+      defaultEncoding = preferences.get(CharDetEncodingProvider.ENCODING_KEY, null);
+      preferences.addPreferenceChangeListener(WeakListeners.create(PreferenceChangeListener.class, this, preferences));
+    }
+
+    @Override
+    public void preferenceChange(PreferenceChangeEvent pEvent)
+    {
+      if (!CharDetEncodingProvider.ENCODING_KEY.equals(pEvent.getKey()))
+        return;
+      defaultEncoding = pEvent.getNewValue();
+      _fireChanged(project.getProjectDirectory());
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package de.adito.nbm.encoding.project;
+
+import de.adito.nbm.encoding.CharDetEncodingProvider;
+import de.adito.nbm.encoding.statusline.StatusLineEncodingProvider;
+import org.netbeans.api.project.*;
+import org.openide.*;
+import org.openide.awt.*;
+
+import javax.swing.*;
+import java.awt.BorderLayout;
+import java.awt.event.*;
+import java.util.List;
+
+/**
+ * Lets the user choose the default encoding of a project, which overrides the global default encoding from the options for all files of
+ * that project
+ */
+@ActionID(category = "Tools", id = "de.adito.nbm.encoding.project.SetProjectDefaultEncodingAction")
+@ActionRegistration(displayName = "Set Default Encoding...")
+@ActionReference(path = "Projects/Actions", position = 1560)
+public class SetProjectDefaultEncodingAction implements ActionListener
+{
+
+  private static final String INHERIT_GLOBAL_DEFAULT = "Use global default";
+  private final Project project;
+
+  public SetProjectDefaultEncodingAction(Project pProject)
+  {
+    project = pProject;
+  }
+
+  @Override
+  public void actionPerformed(ActionEvent e)
+  {
+    List<String> encodings = StatusLineEncodingProvider._getSupportedEncodings();
+    encodings.add(CharDetEncodingProvider.NO_DEFAULT_ENCODING);
+    encodings.add(0, INHERIT_GLOBAL_DEFAULT);
+    JComboBox<String> encodingsComboBox = new JComboBox<>(encodings.toArray(new String[0]));
+    String projectDefaultEncoding = DefaultEncodingPolicy.getProjectDefaultEncoding(project);
+    encodingsComboBox.setSelectedItem(projectDefaultEncoding == null ? INHERIT_GLOBAL_DEFAULT : projectDefaultEncoding);
+
+    JPanel panel = new JPanel(new BorderLayout(10, 0));
+    panel.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
+    panel.add(new JLabel("Default encoding"), BorderLayout.WEST);
+    panel.add(encodingsComboBox, BorderLayout.CENTER);
+    DialogDescriptor descriptor = new DialogDescriptor(panel, "Default Encoding of " + ProjectUtils.getInformation(project).getDisplayName());
+    if (DialogDisplayer.getDefault().notify(descriptor) != NotifyDescriptor.OK_OPTION)
+      return;
+    String selectedEncoding = (String) encodingsComboBox.getSelectedItem();
+    DefaultEncodingPolicy.setProjectDefaultEncoding(project, INHERIT_GLOBAL_DEFAULT.equals(selectedEncoding) ? null : selectedEncoding);
+  }
+}
@@ -0,0 +1,98 @@
+package de.adito.nbm.encoding.scan;
+
+import org.jetbrains.annotations.*;
+import org.openide.filesystems.FileObject;
+
+import java.nio.charset.Charset;
+
+/**
+ * A file whose encoding information is inconsistent, found by the {@link EncodingMismatchScanner}
+ */
+final class EncodingMismatch
+{
+
+  /**
+   * Kind of inconsistency
+   */
+  enum Type
+  {
+    ATTRIBUTE_DIFFERS("File attribute differs from detected encoding"),
+    CONFIGURED_DIFFERS("Detected encoding differs from configured encoding");
+
+    private final String description;
+
+    Type(@NotNull String pDescription)
+    {
+      description = pDescription;
+    }
+
+    @Override
+    public String toString()
+    {
+      return description;
+    }
+  }
+
+  private final FileObject file;
+  private final String relativePath;
+  private final String attributeEncoding;
+  private final Charset detectedEncoding;
+  private final Charset configuredEncoding;
+  private final Type type;
+
+  EncodingMismatch(@NotNull FileObject pFile, @NotNull String pRelativePath, @Nullable String pAttributeEncoding, @NotNull Charset pDetectedEncoding,
+                   @Nullable Charset pConfiguredEncoding, @NotNull Type pType)
+  {
+    file = pFile;
+    relativePath = pRelativePath;
+    attributeEncoding = pAttributeEncoding;
+    detectedEncoding = pDetectedEncoding;
+    configuredEncoding = pConfiguredEncoding;
+    type = pType;
+  }
+
+  @NotNull
+  FileObject getFile()
+  {
+    return file;
+  }
+
+  /**
+   * @return path of the file relative to the scanned folder
+   */
+  @NotNull
+  String getRelativePath()
+  {
+    return relativePath;
+  }
+
+  /**
+   * @return encoding stored in the file attribute, null if the file has no encoding attribute
+   */
+  @Nullable
+  String getAttributeEncoding()
+  {
+    return attributeEncoding;
+  }
+
+  @NotNull
+  Charset getDetectedEncoding()
+  {
+    return detectedEncoding;
+  }
+
+  /**
+   * @return encoding configured for the file via .editorconfig or the default encoding, null if there is none
+   */
+  @Nullable
+  Charset getConfiguredEncoding()
+  {
+    return configuredEncoding;
+  }
+
+  @NotNull
+  Type getType()
+  {
+    return type;
+  }
+}
@@ -0,0 +1,160 @@
+package de.adito.nbm.encoding.scan;
+
+import de.adito.nbm.encoding.CharDetEncodingProvider;
+import de.adito.nbm.encoding.statusline.StatusLineEncodingProvider;
+import org.jetbrains.annotations.*;
+import org.netbeans.api.queries.VisibilityQuery;
+import org.openide.filesystems.*;
+
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the encoding stored in the file attribute, the detected encoding and the configured encoding of all files in a folder tree. The
+ * files are checked in parallel, the detection results are shared with the {@link CharDetEncodingProvider} cache, so a second scan of the
+ * same tree does not have to read unchanged files again
+ */
+class EncodingMismatchScanner
+{
+
+  private static final int PROGRESS_INTERVAL = 256;
+
+  private final CharDetEncodingProvider encodingProvider;
+  private final AtomicBoolean cancelled = new AtomicBoolean();
+
+  EncodingMismatchScanner(@NotNull CharDetEncodingProvider pEncodingProvider)
+  {
+    encodingProvider = pEncodingProvider;
+  }
+
+  /**
+   * Stops a running scan as soon as possible, the scan methods return an empty list afterwards
+   */
+  void cancel()
+  {
+    cancelled.set(true);
+  }
+
+  boolean isCancelled()
+  {
+    return cancelled.get();
+  }
+
+  /**
+   * @param pRoot folder to scan
+   * @return all visible, non-empty files in the folder and its subfolders
+   */
+  @NotNull
+  List<FileObject> collectFiles(@NotNull FileObject pRoot)
+  {
+    List<FileObject> files = new ArrayList<>();
+    Deque<FileObject> folders = new ArrayDeque<>();
+    folders.push(pRoot);
+    VisibilityQuery visibilityQuery = VisibilityQuery.getDefault();
+    while (!folders.isEmpty())
+    {
+      if (cancelled.get())
+        return Collections.emptyList();
+      for (FileObject child : folders.pop().getChildren())
+      {
+        if (!visibilityQuery.isVisible(child))
+          continue;
+        if (child.isFolder())
+          folders.push(child);
+        else if (child.getSize() > 0)
+          files.add(child);
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Checks the given files in parallel
+   *
+   * @param pRoot     folder the files were collected from, the paths of the mismatches are relative to this folder
+   * @param pFiles    files to check
+   * @param pProgress is called with the number of files checked so far, not for every single file
+   * @return the found mismatches, ordered by path. Empty list if the scan was cancelled
+   */
+  @NotNull
+  List<EncodingMismatch> scan(@NotNull FileObject pRoot, @NotNull List<FileObject> pFiles, @NotNull IntConsumer pProgress)
+  {
+    AtomicInteger checkedFiles = new AtomicInteger();
+    ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    try
+    {
+      List<EncodingMismatch> mismatches = pool.submit(() -> pFiles.parallelStream()
+          .map(pFile -> {
+            if (cancelled.get())
+              return null;
+            EncodingMismatch mismatch = _check(pRoot, pFile);
+            int checked = checkedFiles.incrementAndGet();
+            if (checked % PROGRESS_INTERVAL == 0)
+              pProgress.accept(checked);
+            return mismatch;
+          })
+          .filter(Objects::nonNull)
+          .sorted(Comparator.comparing(EncodingMismatch::getRelativePath))
+          .collect(Collectors.toList())).get();
+      return cancelled.get() ? Collections.emptyList() : mismatches;
+    }
+    catch (InterruptedException pE)
+    {
+      Thread.currentThread().interrupt();
+      return Collections.emptyList();
+    }
+    catch (ExecutionException pE)
+    {
+      throw new RuntimeException("Error while scanning the encodings of " + pRoot.getPath(), pE.getCause());
+    }
+    finally
+    {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * @return the mismatch of the file, null if the encodings of the file are consistent
+   */
+  @Nullable
+  private EncodingMismatch _check(@NotNull FileObject pRoot, @NotNull FileObject pFile)
+  {
+    Charset detectedEncoding = encodingProvider.getDetectedEncoding(pFile);
+    // without a detection result there is nothing to compare, e.g. for pure ASCII files
+    if (detectedEncoding == null)
+      return null;
+    String relativePath = FileUtil.getRelativePath(pRoot, pFile);
+    if (relativePath == null)
+      relativePath = pFile.getPath();
+    Charset configuredEncoding = encodingProvider.getConfiguredEncoding(pFile);
+    Object attributeObj = pFile.getAttribute(StatusLineEncodingProvider.ENCODING_ATTRIBUTE);
+    if (attributeObj instanceof String)
+    {
+      String attributeEncoding = (String) attributeObj;
+      if (!detectedEncoding.equals(_toCharset(attributeEncoding)))
+        return new EncodingMismatch(pFile, relativePath, attributeEncoding, detectedEncoding, configuredEncoding, EncodingMismatch.Type.ATTRIBUTE_DIFFERS);
+      // the user chose the encoding explicitly, so the configured encoding does not matter
+      return null;
+    }
+    if (configuredEncoding != null && !configuredEncoding.equals(detectedEncoding))
+      return new EncodingMismatch(pFile, relativePath, null, detectedEncoding, configuredEncoding, EncodingMismatch.Type.CONFIGURED_DIFFERS);
+    return null;
+  }
+
+  @Nullable
+  private static Charset _toCharset(@NotNull String pEncoding)
+  {
+    try
+    {
+      return Charset.forName(pEncoding);
+    }
+    catch (IllegalCharsetNameException | UnsupportedCharsetException pE)
+    {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package de.adito.nbm.encoding.scan;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.table.AbstractTableModel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * TableModel for the mismatches found by the {@link EncodingMismatchScanner}, one row per file
+ */
+class EncodingMismatchTableModel extends AbstractTableModel
+{
+
+  private static final String[] COLUMN_NAMES = {"File", "File attribute", "Detected", "Configured", "Problem"};
+  private final List<EncodingMismatch> mismatches;
+
+  EncodingMismatchTableModel(@NotNull List<EncodingMismatch> pMismatches)
+  {
+    mismatches = new ArrayList<>(pMismatches);
+  }
+
+  @Override
+  public int getRowCount()
+  {
+    return mismatches.size();
+  }
+
+  @Override
+  public int getColumnCount()
+  {
+    return COLUMN_NAMES.length;
+  }
+
+  @Override
+  public String getColumnName(int pColumn)
+  {
+    return COLUMN_NAMES[pColumn];
+  }
+
+  @Override
+  public Object getValueAt(int pRowIndex, int pColumnIndex)
+  {
+    EncodingMismatch mismatch = mismatches.get(pRowIndex);
+    switch (pColumnIndex)
+    {
+      case 0:
+        return mismatch.getRelativePath();
+      case 1:
+        return mismatch.getAttributeEncoding() == null ? "" : mismatch.getAttributeEncoding();
+      case 2:
+        return mismatch.getDetectedEncoding().name();
+      case 3:
+        Charset configuredEncoding = mismatch.getConfiguredEncoding();
+        return configuredEncoding == null ? "" : configuredEncoding.name();
+      default:
+        return mismatch.getType().toString();
+    }
+  }
+
+  /**
+   * @param pRowIndex index of the row in the model
+   * @return the mismatch shown in the given row
+   */
+  @NotNull
+  EncodingMismatch getMismatch(int pRowIndex)
+  {
+    return mismatches.get(pRowIndex);
+  }
+
+  /**
+   * removes the rows of mismatches that were fixed
+   *
+   * @param pMismatches mismatches to remove
+   */
+  void remove(@NotNull Collection<EncodingMismatch> pMismatches)
+  {
+    if (mismatches.removeAll(pMismatches))
+      fireTableDataChanged();
+  }
+}
@@ -0,0 +1,172 @@
+package de.adito.nbm.encoding.scan;
+
+import de.adito.nbm.encoding.EncodingConverter;
+import de.adito.nbm.encoding.statusline.StatusLineEncodingProvider;
+import org.jetbrains.annotations.NotNull;
+import org.openide.awt.NotificationDisplayer;
+import org.openide.cookies.OpenCookie;
+import org.openide.loaders.*;
+import org.openide.util.RequestProcessor;
+import org.openide.windows.*;
+
+import javax.swing.*;
+import java.awt.BorderLayout;
+import java.awt.event.*;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Shows the mismatches found by the {@link EncodingMismatchScanner} in a sortable table and offers fixes for the selected rows
+ */
+class EncodingScanResultsTopComponent extends TopComponent
+{
+
+  private static final RequestProcessor FIX_PROCESSOR = new RequestProcessor(EncodingScanResultsTopComponent.class.getName(), 1);
+  private final EncodingMismatchTableModel tableModel;
+  private final JTable table;
+
+  EncodingScanResultsTopComponent(@NotNull String pScannedName, @NotNull List<EncodingMismatch> pMismatches)
+  {
+    setName("Encoding Mismatches - " + pScannedName);
+    setToolTipText(pMismatches.size() + " encoding mismatches in " + pScannedName);
+    setLayout(new BorderLayout());
+    tableModel = new EncodingMismatchTableModel(pMismatches);
+    table = new JTable(tableModel);
+    table.setAutoCreateRowSorter(true);
+    table.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+    table.addMouseListener(new _OpenFileMouseListener());
+
+    JToolBar toolBar = new JToolBar();
+    toolBar.setFloatable(false);
+    toolBar.add(new AbstractAction("Use detected encoding")
+    {
+      @Override
+      public void actionPerformed(ActionEvent e)
+      {
+        _fixSelected(false);
+      }
+    }).setToolTipText("Stores the detected encoding in the file attribute of the selected files, the file contents are not changed");
+    toolBar.add(new AbstractAction("Convert to configured encoding")
+    {
+      @Override
+      public void actionPerformed(ActionEvent e)
+      {
+        _fixSelected(true);
+      }
+    }).setToolTipText("Rewrites the selected files in the encoding configured via .editorconfig or the default encoding");
+    add(toolBar, BorderLayout.NORTH);
+    add(new JScrollPane(table), BorderLayout.CENTER);
+  }
+
+  @Override
+  public int getPersistenceType()
+  {
+    return PERSISTENCE_NEVER;
+  }
+
+  /**
+   * opens this TopComponent in the output mode and activates it
+   */
+  void openInOutputMode()
+  {
+    Mode outputMode = WindowManager.getDefault().findMode("output");
+    if (outputMode != null)
+      outputMode.dockInto(this);
+    open();
+    requestActive();
+  }
+
+  /**
+   * Fixes the mismatches of all selected rows in the background, fixed rows are removed from the table afterwards
+   *
+   * @param pConvert true if the files should be rewritten in the configured encoding, false if the detected encoding should be stored in the file
+   *                 attribute
+   */
+  private void _fixSelected(boolean pConvert)
+  {
+    List<EncodingMismatch> selected = new ArrayList<>();
+    for (int viewRow : table.getSelectedRows())
+      selected.add(tableModel.getMismatch(table.convertRowIndexToModel(viewRow)));
+    FIX_PROCESSOR.post(() -> {
+      List<EncodingMismatch> fixed = new ArrayList<>();
+      for (EncodingMismatch mismatch : selected)
+      {
+        if (pConvert ? _convert(mismatch) : _useDetected(mismatch))
+          fixed.add(mismatch);
+      }
+      SwingUtilities.invokeLater(() -> tableModel.remove(fixed));
+    });
+  }
+
+  private static boolean _useDetected(@NotNull EncodingMismatch pMismatch)
+  {
+    try
+    {
+      pMismatch.getFile().setAttribute(StatusLineEncodingProvider.ENCODING_ATTRIBUTE, pMismatch.getDetectedEncoding().name());
+      return true;
+    }
+    catch (IOException pE)
+    {
+      _notifyError(pMismatch, pE.getMessage());
+      return false;
+    }
+  }
+
+  private static boolean _convert(@NotNull EncodingMismatch pMismatch)
+  {
+    Charset configuredEncoding = pMismatch.getConfiguredEncoding();
+    if (configuredEncoding == null)
+      return false;
+    try
+    {
+      // the file content on disk is converted, unsaved changes of an open editor would overwrite the converted content again
+      DataObject dataObject = DataObject.find(pMismatch.getFile());
+      if (dataObject.isModified())
+      {
+        _notifyError(pMismatch, "The file has unsaved changes, save the file before converting it");
+        return false;
+      }
+      EncodingConverter.convert(pMismatch.getFile(), pMismatch.getDetectedEncoding(), configuredEncoding.name());
+      return true;
+    }
+    catch (IOException pE)
+    {
+      _notifyError(pMismatch, pE.getMessage());
+      return false;
+    }
+  }
+
+  private static void _notifyError(@NotNull EncodingMismatch pMismatch, String pMessage)
+  {
+    NotificationDisplayer.getDefault().notify("Could not fix encoding of " + pMismatch.getRelativePath(),
+                                              NotificationDisplayer.Priority.NORMAL.getIcon(), pMessage == null ? "" : pMessage, null);
+  }
+
+  /**
+   * Opens the file of a row in the editor on double click
+   */
+  private class _OpenFileMouseListener extends MouseAdapter
+  {
+    @Override
+    public void mouseClicked(MouseEvent e)
+    {
+      if (e.getClickCount() != 2)
+        return;
+      int viewRow = table.rowAtPoint(e.getPoint());
+      if (viewRow < 0)
+        return;
+      EncodingMismatch mismatch = tableModel.getMismatch(table.convertRowIndexToModel(viewRow));
+      try
+      {
+        OpenCookie openCookie = DataObject.find(mismatch.getFile()).getLookup().lookup(OpenCookie.class);
+        if (openCookie != null)
+          openCookie.open();
+      }
+      catch (DataObjectNotFoundException pE)
+      {
+        // file was deleted in the meantime, nothing to open
+      }
+    }
+  }
+}
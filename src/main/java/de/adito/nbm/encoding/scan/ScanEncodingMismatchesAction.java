@@ -0,0 +1,68 @@
+package de.adito.nbm.encoding.scan;
+
+import de.adito.nbm.encoding.CharDetEncodingProvider;
+import org.netbeans.api.progress.ProgressHandle;
+import org.netbeans.api.project.*;
+import org.openide.awt.*;
+import org.openide.filesystems.FileObject;
+import org.openide.util.*;
+
+import javax.swing.*;
+import java.awt.event.*;
+import java.util.List;
+
+/**
+ * Scans the selected projects for files whose encoding attribute, detected encoding and configured encoding do not match and shows the
+ * results in an {@link EncodingScanResultsTopComponent}
+ */
+@ActionID(category = "Tools", id = "de.adito.nbm.encoding.scan.ScanEncodingMismatchesAction")
+@ActionRegistration(displayName = "Scan Encoding Mismatches")
+@ActionReferences({
+    @ActionReference(path = "Projects/Actions", position = 1550),
+    @ActionReference(path = "Menu/Tools", position = 1550)
+})
+public class ScanEncodingMismatchesAction implements ActionListener
+{
+
+  private static final RequestProcessor SCAN_PROCESSOR = new RequestProcessor(ScanEncodingMismatchesAction.class.getName(), 1, true);
+  private final List<Project> projects;
+
+  public ScanEncodingMismatchesAction(List<Project> pProjects)
+  {
+    projects = pProjects;
+  }
+
+  @Override
+  public void actionPerformed(ActionEvent e)
+  {
+    CharDetEncodingProvider encodingProvider = Lookup.getDefault().lookup(CharDetEncodingProvider.class);
+    if (encodingProvider == null)
+      return;
+    for (Project project : projects)
+      SCAN_PROCESSOR.post(() -> _scan(encodingProvider, project));
+  }
+
+  private static void _scan(CharDetEncodingProvider pEncodingProvider, Project pProject)
+  {
+    String projectName = ProjectUtils.getInformation(pProject).getDisplayName();
+    FileObject projectDirectory = pProject.getProjectDirectory();
+    EncodingMismatchScanner scanner = new EncodingMismatchScanner(pEncodingProvider);
+    ProgressHandle handle = ProgressHandle.createHandle("Scanning encodings of " + projectName, () -> {
+      scanner.cancel();
+      return true;
+    });
+    handle.start();
+    try
+    {
+      List<FileObject> files = scanner.collectFiles(projectDirectory);
+      handle.switchToDeterminate(files.size());
+      List<EncodingMismatch> mismatches = scanner.scan(projectDirectory, files, handle::progress);
+      if (!scanner.isCancelled())
+        SwingUtilities.invokeLater(() -> new EncodingScanResultsTopComponent(projectName, mismatches).openInOutputMode());
+    }
+    finally
+    {
+      handle.finish();
+    }
+  }
+}
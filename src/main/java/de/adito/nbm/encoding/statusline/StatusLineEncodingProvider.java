@@ -1,23 +1,26 @@
 package de.adito.nbm.encoding.statusline;
 
-import de.adito.nbm.encoding.CharDetEncodingProvider;
+import de.adito.nbm.encoding.*;
+import de.adito.nbm.encoding.detection.LineSeparators;
+import de.adito.nbm.encoding.options.EncodingOptionsPanel;
 import de.adito.swing.KeyForwardAdapter;
 import de.adito.swing.popup.*;
 import org.apache.commons.lang3.exception.ExceptionUtils;
-import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.*;
 import org.mozilla.universalchardet.Constants;
 import org.netbeans.api.actions.Savable;
 import org.netbeans.api.queries.FileEncodingQuery;
 import org.openide.*;
 import org.openide.awt.*;
 import org.openide.filesystems.*;
-import org.openide.loaders.DataObject;
+import org.openide.loaders.*;
 import org.openide.util.*;
 import org.openide.util.lookup.ServiceProvider;
 import org.openide.windows.*;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.ChangeListener;
 import java.awt.*;
 import java.awt.event.*;
 import java.beans.*;
@@ -35,6 +38,8 @@ public class StatusLineEncodingProvider implements StatusLineElementProvider, Pr
 {
 
   public static final String ENCODING_ATTRIBUTE = "ENCODING";
+  public static final String SAVE_ALL_KEY = "de.adito.plugins.encoding.save.all";
+  private static final RequestProcessor ENCODING_PROCESSOR = new RequestProcessor(StatusLineEncodingProvider.class.getName(), 1);
   private static final String ENTER_KEY_STRING = "ENTER";
   private final JLabel encodingLabel = new JLabel("N/A");
   private final JPanel encodingPanel;
@@ -42,7 +47,13 @@ public class StatusLineEncodingProvider implements StatusLineElementProvider, Pr
   private final Set<String> pluginSupportedEncodings = new HashSet<>();
   private final Icon warningIcon = new ImageIcon(ImageUtilities.loadImage("de/adito/nbm/encoding/warning12.png"));
   private final EncodingQuickSearchCallback quickSearchCallback;
-  private FileObject lastFileObject;
+  /**
+   * resolved encodings of the visited editors, so switching between them does not touch the files again. Only accessed on the EDT
+   */
+  private final Map<TopComponent, _EncodingSnapshot> snapshots = new WeakHashMap<>();
+  private final ChangeListener encodingsChangedListener = pEvent -> SwingUtilities.invokeLater(this::_invalidateAll);
+  private CharDetEncodingProvider encodingProvider;
+  private Mode editorMode;
   private PopupWindow popupWindow;
 
   public StatusLineEncodingProvider()
@@ -150,70 +161,117 @@ public class StatusLineEncodingProvider implements StatusLineElementProvider, Pr
   @Override
   public void propertyChange(PropertyChangeEvent evt)
   {
+    if (TopComponent.Registry.PROP_TC_CLOSED.equals(evt.getPropertyName()) && evt.getNewValue() instanceof TopComponent)
+      _removeSnapshot((TopComponent) evt.getNewValue());
     _update();
   }
 
   /**
-   * Update listeners and the label showing the encoding of the currently selected editor
+   * Update the label showing the encoding of the currently selected editor. Editors that were shown before are rendered from their snapshot
    */
   private void _update()
   {
-    FileObject fileObject = _getFileObject();
-    _updateListeners(fileObject);
-    _updateLabel(fileObject);
+    TopComponent editor = _getSelectedEditor();
+    _updateLabel(editor == null ? null : _getSnapshot(editor));
   }
 
   /**
-   * removes the "old" fileChangeListener and attaches it to the given fileObject, if non-null
-   *
-   * @param pFileObject new FileObject to attach the fileChangeListener
+   * @param pEditor editor TopComponent
+   * @return the snapshot of the editor, created if the editor was not shown before. Null if the editor does not show a file
    */
-  private void _updateListeners(@Nullable FileObject pFileObject)
+  @Nullable
+  private _EncodingSnapshot _getSnapshot(@NotNull TopComponent pEditor)
   {
-    if (lastFileObject != null)
+    _EncodingSnapshot snapshot = snapshots.get(pEditor);
+    if (snapshot == null)
     {
-      lastFileObject.removeFileChangeListener(this);
-    }
-    if (pFileObject != null)
-    {
-      lastFileObject = pFileObject;
-      pFileObject.addFileChangeListener(this);
-    }
-    else
-    {
-      lastFileObject = null;
+      FileObject fileObject = pEditor.getLookup().lookup(FileObject.class);
+      if (fileObject == null)
+        return null;
+      snapshot = new _EncodingSnapshot(fileObject, _getEncodingProvider());
+      snapshots.put(pEditor, snapshot);
+      fileObject.addFileChangeListener(this);
     }
+    return snapshot;
+  }
+
+  private void _removeSnapshot(@NotNull TopComponent pEditor)
+  {
+    _EncodingSnapshot snapshot = snapshots.remove(pEditor);
+    if (snapshot != null)
+      snapshot.fileObject.removeFileChangeListener(this);
   }
 
   /**
-   * retrieve the encoding for the given FileObject and set the text of the label
+   * Drops the snapshots of all editors showing the given file, they are created again the next time the editor is shown
    *
-   * @param pFileObject FileObject to analyse
+   * @param pFileObject file that changed
    */
-  private void _updateLabel(@Nullable FileObject pFileObject)
+  private void _invalidate(@NotNull FileObject pFileObject)
   {
-    Charset encoding = null;
-    String fileAttrEncoding = null;
-    if (pFileObject != null)
-    {
-      CharDetEncodingProvider encodingProvider = Lookup.getDefault().lookup(CharDetEncodingProvider.class);
-      encoding = encodingProvider.getEncoding(pFileObject);
-      if (encoding == null)
-        encoding = FileEncodingQuery.getEncoding(pFileObject);
-      fileAttrEncoding = (String) pFileObject.getAttribute(ENCODING_ATTRIBUTE);
-    }
-    if (fileAttrEncoding != null && !Charset.forName(fileAttrEncoding).equals(encoding))
+    Iterator<_EncodingSnapshot> iterator = snapshots.values().iterator();
+    while (iterator.hasNext())
     {
-      encodingLabel.setToolTipText("Detected different encodings for file attribute and charset detection. File attribute: "
-                                       + fileAttrEncoding + ", charset detection: " + encoding);
-      encodingLabel.setIcon(warningIcon);
+      _EncodingSnapshot snapshot = iterator.next();
+      if (snapshot.fileObject.equals(pFileObject))
+      {
+        iterator.remove();
+        pFileObject.removeFileChangeListener(this);
+      }
     }
+    _update();
+  }
+
+  /**
+   * Drops all snapshots, e.g. because the default encoding changed
+   */
+  private void _invalidateAll()
+  {
+    for (_EncodingSnapshot snapshot : snapshots.values())
+      snapshot.fileObject.removeFileChangeListener(this);
+    snapshots.clear();
+    _update();
+  }
+
+  /**
+   * set the text of the label according to the given snapshot
+   *
+   * @param pSnapshot snapshot of the shown editor, null if no file is shown
+   */
+  private void _updateLabel(@Nullable _EncodingSnapshot pSnapshot)
+  {
+    String warning = pSnapshot == null ? null : pSnapshot.warning;
+    String info;
+    if (pSnapshot != null && pSnapshot.binary)
+      info = "Binary file, the encoding is not detected";
     else
+      info = pSnapshot == null || pSnapshot.lineSeparators == null ? null : _describe(pSnapshot.lineSeparators);
+    encodingLabel.setToolTipText(warning == null ? info : warning);
+    encodingLabel.setIcon(warning == null ? null : warningIcon);
+    encodingLabel.setText(pSnapshot == null || pSnapshot.encoding == null ? "N/A" : pSnapshot.encoding.toString());
+  }
+
+  /**
+   * @param pLineSeparators counted line separators
+   * @return text for the tooltip, telling if only the head of the file was counted
+   */
+  @NotNull
+  private static String _describe(@NotNull LineSeparators pLineSeparators)
+  {
+    if (pLineSeparators.isComplete())
+      return "Line separators: " + pLineSeparators;
+    return "Line separators in the first " + Math.max(1, pLineSeparators.getExaminedBytes() / 1024) + " KB: " + pLineSeparators;
+  }
+
+  @NotNull
+  private CharDetEncodingProvider _getEncodingProvider()
+  {
+    if (encodingProvider == null)
     {
-      encodingLabel.setToolTipText(null);
-      encodingLabel.setIcon(null);
+      encodingProvider = Lookup.getDefault().lookup(CharDetEncodingProvider.class);
+      encodingProvider.addChangeListener(WeakListeners.change(encodingsChangedListener, encodingProvider));
     }
-    encodingLabel.setText(encoding == null ? "N/A" : encoding.toString());
+    return encodingProvider;
   }
 
   /**
@@ -227,36 +285,46 @@ public class StatusLineEncodingProvider implements StatusLineElementProvider, Pr
     FileObject fileObject = _getFileObject();
     if (fileObject == null)
       return;
-    _saveAll();
+    encodingList.clearSelection();
+    // saving may trigger save hooks, formatters and VCS listeners, so neither saving nor converting should block the EDT
+    ENCODING_PROCESSOR.post(() -> _convert(fileObject, pSelectedEncoding));
+  }
+
+  /**
+   * Saves the file (or all modified files, if set in the options) and writes the file contents in the selected encoding
+   *
+   * @param pFileObject       file to convert
+   * @param pSelectedEncoding encoding that should be used to write the file contents to disk
+   */
+  private static void _convert(FileObject pFileObject, String pSelectedEncoding)
+  {
     try
     {
-      fileObject.setAttribute(ENCODING_ATTRIBUTE, pSelectedEncoding);
-      byte[] fileContents = fileObject.asBytes();
-      Charset currentEncoding = FileEncodingQuery.getEncoding(fileObject);
-      try (OutputStream outputStream = fileObject.getOutputStream())
-      {
-        byte[] changedEncodingBytes = new String(fileContents, currentEncoding).getBytes(pSelectedEncoding);
-        outputStream.write(changedEncodingBytes);
-      }
+      boolean saveAll = NbPreferences.forModule(EncodingOptionsPanel.class).getBoolean(SAVE_ALL_KEY, false);
+      if (!(saveAll ? _saveAll() : _saveFile(pFileObject)))
+        return;
+      EncodingConverter.convert(pFileObject, pSelectedEncoding);
     }
     catch (IOException pE)
     {
       NotificationDisplayer.getDefault().notify(pE.getClass().getSimpleName() + " while setting encoding",
                                                 NotificationDisplayer.Priority.NORMAL.getIcon(), pE.getMessage(), null);
     }
-    encodingList.clearSelection();
   }
 
   @Nullable
   private FileObject _getFileObject()
   {
-    Mode editorMode = WindowManager.getDefault().findMode("editor");
+    TopComponent editor = _getSelectedEditor();
+    return editor == null ? null : editor.getLookup().lookup(FileObject.class);
+  }
+
+  @Nullable
+  private TopComponent _getSelectedEditor()
+  {
     if (editorMode == null)
-      return null;
-    TopComponent selectedTopComponent = editorMode.getSelectedTopComponent();
-    if (selectedTopComponent == null)
-      return null;
-    return selectedTopComponent.getLookup().lookup(FileObject.class);
+      editorMode = WindowManager.getDefault().findMode("editor");
+    return editorMode == null ? null : editorMode.getSelectedTopComponent();
   }
 
   /*
@@ -278,7 +346,8 @@ public class StatusLineEncodingProvider implements StatusLineElementProvider, Pr
   @Override
   public void fileChanged(FileEvent fe)
   {
-    _updateLabel(fe.getFile());
+    FileObject fileObject = fe.getFile();
+    SwingUtilities.invokeLater(() -> _invalidate(fileObject));
   }
 
   @Override
@@ -296,13 +365,44 @@ public class StatusLineEncodingProvider implements StatusLineElementProvider, Pr
   @Override
   public void fileAttributeChanged(FileAttributeEvent fe)
   {
-    // not interested
+    if (!ENCODING_ATTRIBUTE.equals(fe.getName()))
+      return;
+    FileObject fileObject = fe.getFile();
+    SwingUtilities.invokeLater(() -> _invalidate(fileObject));
   }
 
   /*
   End FileChangeListener methods
    */
 
+  /**
+   * Encoding of the file of an editor as shown in the status line, together with the warning if the file attribute differs, the line
+   * separators counted while detecting the encoding and whether the file is binary
+   */
+  private static class _EncodingSnapshot
+  {
+    private final FileObject fileObject;
+    private final Charset encoding;
+    private final String warning;
+    private final LineSeparators lineSeparators;
+    private final boolean binary;
+
+    _EncodingSnapshot(@NotNull FileObject pFileObject, @NotNull CharDetEncodingProvider pEncodingProvider)
+    {
+      fileObject = pFileObject;
+      Charset detectedEncoding = pEncodingProvider.getEncoding(pFileObject);
+      encoding = detectedEncoding == null ? FileEncodingQuery.getEncoding(pFileObject) : detectedEncoding;
+      String fileAttrEncoding = (String) pFileObject.getAttribute(ENCODING_ATTRIBUTE);
+      if (fileAttrEncoding != null && (!Charset.isSupported(fileAttrEncoding) || !Charset.forName(fileAttrEncoding).equals(encoding)))
+        warning = "Detected different encodings for file attribute and charset detection. File attribute: " + fileAttrEncoding
+            + ", charset detection: " + encoding;
+      else
+        warning = null;
+      lineSeparators = pEncodingProvider.getLineSeparators(pFileObject);
+      binary = detectedEncoding == null && pEncodingProvider.isBinary(pFileObject);
+    }
+  }
+
   /**
    * Vertical Separator configured for the statusline
    */
@@ -366,21 +466,49 @@ public class StatusLineEncodingProvider implements StatusLineElementProvider, Pr
     }
   }
 
-  private static void _saveAll()
+  /**
+   * Saves all modified files
+   *
+   * @return false if the user cancelled the save
+   */
+  private static boolean _saveAll()
   {
     Map<Savable, IOException> couldNotSave = new LinkedHashMap<>();
     // Alles aus 'Savable.REGISTRY' speichern.
     for (Savable savable : Savable.REGISTRY.lookupAll(Savable.class))
       if (!_save(savable, couldNotSave))
-        return;
+        return false;
     // Alte Implementierungen finden sich u.U. nur in 'DataObject.getRegistry()'.
     for (DataObject dataObject : DataObject.getRegistry().getModifiedSet())
       for (Savable savable : dataObject.getLookup().lookupAll(Savable.class))
         if (!_save(savable, couldNotSave))
-          return;
+          return false;
 
     if (!couldNotSave.isEmpty())
       _warnCouldNotSave(couldNotSave);
+    return true;
+  }
+
+  /**
+   * Saves the document of the given file, if it is modified. Other modified files are not touched
+   *
+   * @param pFileObject file whose document should be saved
+   * @return false if the user cancelled the save
+   * @throws DataObjectNotFoundException if there is no DataObject for the file
+   */
+  private static boolean _saveFile(FileObject pFileObject) throws DataObjectNotFoundException
+  {
+    DataObject dataObject = DataObject.find(pFileObject);
+    if (!dataObject.isModified())
+      return true;
+    Map<Savable, IOException> couldNotSave = new LinkedHashMap<>();
+    for (Savable savable : dataObject.getLookup().lookupAll(Savable.class))
+      if (!_save(savable, couldNotSave))
+        return false;
+
+    if (!couldNotSave.isEmpty())
+      _warnCouldNotSave(couldNotSave);
+    return true;
   }
 
   /**
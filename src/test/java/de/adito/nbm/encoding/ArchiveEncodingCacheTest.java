@@ -0,0 +1,71 @@
+package de.adito.nbm.encoding;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openide.filesystems.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.zip.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the detection of archive entries and that results are dropped once the archive changes
+ */
+class ArchiveEncodingCacheTest
+{
+
+  private static final String CYRILLIC = "Съешь же ещё этих мягких французских булок, да выпей чаю. Широкая электрификация южных губерний даст " +
+      "мощный толчок подъёму сельского хозяйства.\n";
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void detectsArchiveEntries() throws Exception
+  {
+    File archive = tempDir.resolve("sources.jar").toFile();
+    _writeArchive(archive, Charset.forName("KOI8-R"));
+    JarFileSystem fileSystem = new JarFileSystem();
+    fileSystem.setJarFile(archive);
+    ArchiveEncodingCache cache = new ArchiveEncodingCache();
+
+    assertEquals(Optional.of(Charset.forName("KOI8-R")), cache.getEncoding(fileSystem.findResource("sub/text.txt")));
+    assertEquals(Optional.of(StandardCharsets.UTF_8), cache.getEncoding(fileSystem.findResource("utf8.txt")));
+    assertEquals(Optional.empty(), cache.getEncoding(fileSystem.findResource("image.png")));
+    assertNull(cache.getEncoding(FileUtil.createMemoryFileSystem().getRoot().createData("plain.txt")));
+
+    _writeArchive(archive, StandardCharsets.UTF_8);
+    assertTrue(archive.setLastModified(archive.lastModified() - 10000));
+    assertEquals(Optional.of(StandardCharsets.UTF_8), cache.getEncoding(fileSystem.findResource("sub/text.txt")));
+  }
+
+  @Test
+  void recognizesArchiveEntries() throws Exception
+  {
+    File archive = tempDir.resolve("sources.jar").toFile();
+    _writeArchive(archive, StandardCharsets.UTF_8);
+    JarFileSystem fileSystem = new JarFileSystem();
+    fileSystem.setJarFile(archive);
+
+    assertTrue(ArchiveEncodingCache.isArchiveEntry(fileSystem.findResource("sub/text.txt")));
+    assertFalse(ArchiveEncodingCache.isArchiveEntry(FileUtil.createMemoryFileSystem().getRoot().createData("plain.txt")));
+  }
+
+  private static void _writeArchive(File pArchive, Charset pCharset) throws IOException
+  {
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(pArchive)))
+    {
+      out.putNextEntry(new ZipEntry("sub/text.txt"));
+      out.write(CYRILLIC.getBytes(pCharset));
+      out.putNextEntry(new ZipEntry("utf8.txt"));
+      out.write(CYRILLIC.getBytes(StandardCharsets.UTF_8));
+      out.putNextEntry(new ZipEntry("image.png"));
+      out.write(new byte[]{(byte) 0x89, 'P', 'N', 'G', 0, 0});
+      out.closeEntry();
+    }
+  }
+}
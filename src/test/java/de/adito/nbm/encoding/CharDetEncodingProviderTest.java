@@ -0,0 +1,262 @@
+package de.adito.nbm.encoding;
+
+import com.google.common.io.CountingInputStream;
+import de.adito.nbm.encoding.detection.*;
+import de.adito.nbm.encoding.options.EncodingOptionsPanel;
+import de.adito.nbm.encoding.statusline.StatusLineEncodingProvider;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.*;
+import org.openide.filesystems.*;
+import org.openide.util.NbPreferences;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.prefs.Preferences;
+import java.util.stream.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Accuracy regression harness for {@link CharDetEncodingProvider}, runs against the generated {@link EncodingTestCorpus}. Every registered
+ * {@link IEncodingDetector} is checked on its own as well. The throughput is measured by {@link DetectionBenchmarkTest}
+ */
+class CharDetEncodingProviderTest
+{
+
+  private static final double MIN_OVERALL_ACCURACY = 0.9;
+  /**
+   * charsets that are part of Constants, but cannot be written by the JRE. These are not part of the corpus
+   */
+  private static final Set<String> NOT_ENCODABLE = new HashSet<>(Arrays.asList("HZ-GB-2312", "ISO-2022-CN", "X-ISO-10646-UCS-4-3412",
+                                                                               "X-ISO-10646-UCS-4-2143"));
+  /**
+   * charsets that UCharDet is known to mistake for another charset with the corpus texts. If one of these starts to be detected correctly, the
+   * entry can be removed, a new entry here is a regression
+   */
+  private static final Set<String> KNOWN_MISDETECTIONS = new HashSet<>(Collections.singletonList("WINDOWS-1251"));
+  /**
+   * amount of bytes that may be read for files that contain a BOM or are written in a multi-byte charset, independent of the file size
+   */
+  private static final int EARLY_EXIT_READ_LIMIT = 16 * 1024;
+
+  private static FileObject corpusFolder;
+  private String previousDefaultEncoding;
+
+  @BeforeAll
+  static void setUp() throws IOException
+  {
+    corpusFolder = FileUtil.createMemoryFileSystem().getRoot().createFolder("corpus");
+  }
+
+  /**
+   * The tests run outside of the IDE, so the preferences are the ones of the user. Tests that change the default encoding must not leave
+   * their value behind
+   */
+  @BeforeEach
+  void rememberDefaultEncoding()
+  {
+    previousDefaultEncoding = _getPreferences().get(CharDetEncodingProvider.ENCODING_KEY, null);
+  }
+
+  @AfterEach
+  void restoreDefaultEncoding()
+  {
+    if (previousDefaultEncoding == null)
+      _getPreferences().remove(CharDetEncodingProvider.ENCODING_KEY);
+    else
+      _getPreferences().put(CharDetEncodingProvider.ENCODING_KEY, previousDefaultEncoding);
+  }
+
+  static Stream<EncodingTestCorpus.CorpusFile> corpus()
+  {
+    return EncodingTestCorpus.generate().stream();
+  }
+
+  static Stream<Arguments> detectors()
+  {
+    return EncodingDetectorChain.getDetectors().stream()
+        .map(pDetector -> Arguments.of(pDetector.getName(), pDetector));
+  }
+
+  @Test
+  void corpusCoversAllSupportedCharsets()
+  {
+    for (String charsetName : EncodingTestCorpus.getCharsetNames())
+    {
+      assertFalse(EncodingTestCorpus.getSamples(charsetName).isEmpty(), "no sample text for " + charsetName);
+    }
+    Set<String> notEncodable = EncodingTestCorpus.getCharsetNames().stream()
+        .filter(pName -> EncodingTestCorpus.getEncodableCharset(pName) == null)
+        .collect(Collectors.toSet());
+    assertEquals(NOT_ENCODABLE, notEncodable);
+  }
+
+  @ParameterizedTest(name = "{0}")
+  @MethodSource("corpus")
+  void detectsCorpusFile(EncodingTestCorpus.CorpusFile pFile) throws IOException
+  {
+    Charset detected = new CharDetEncodingProvider().getEncoding(_writeToFileObject(pFile));
+    if (!KNOWN_MISDETECTIONS.contains(pFile.getCharsetName()))
+      assertTrue(pFile.isDecodedCorrectly(detected), pFile + " was detected as " + detected);
+  }
+
+  @Test
+  void overallAccuracy() throws IOException
+  {
+    List<EncodingTestCorpus.CorpusFile> files = EncodingTestCorpus.generate();
+    int correct = 0;
+    for (EncodingTestCorpus.CorpusFile file : files)
+    {
+      if (file.isDecodedCorrectly(CharDetEncodingProvider.detectEncoding(new ByteArrayInputStream(file.getContent())).orElse(null)))
+        correct++;
+    }
+    double accuracy = correct / (double) files.size();
+    assertTrue(accuracy >= MIN_OVERALL_ACCURACY, "accuracy dropped to " + correct + "/" + files.size());
+  }
+
+  @Test
+  void bulkQueryMatchesSingleQueries() throws IOException
+  {
+    List<FileObject> fileObjects = new ArrayList<>();
+    for (EncodingTestCorpus.CorpusFile file : EncodingTestCorpus.generate())
+      fileObjects.add(_writeToFileObject(file));
+    Map<FileObject, Charset> streamed = new ConcurrentHashMap<>();
+
+    Map<FileObject, Charset> bulkEncodings = new CharDetEncodingProvider().getEncodings(fileObjects, streamed::put);
+
+    assertEquals(bulkEncodings, streamed);
+    CharDetEncodingProvider provider = new CharDetEncodingProvider();
+    for (FileObject fileObject : fileObjects)
+      assertEquals(provider.getEncoding(fileObject), bulkEncodings.get(fileObject), fileObject.getPath());
+  }
+
+  @Test
+  void countsLineSeparatorsWhileDetecting() throws IOException
+  {
+    CharDetEncodingProvider provider = new CharDetEncodingProvider();
+    FileObject windows = _writeToFileObject("Grüße, Съешь же ещё\r\nGrüße, Съешь же ещё\r\n", StandardCharsets.UTF_8);
+    // the separators are only known after a detection pass, asking for them does not read the file
+    assertNull(provider.getLineSeparators(windows));
+    assertEquals(StandardCharsets.UTF_8, provider.getDetectedEncoding(windows));
+    LineSeparators separators = provider.getLineSeparators(windows);
+    assertNotNull(separators);
+    assertTrue(separators.isComplete());
+    assertEquals("\r\n", separators.getDominant());
+    assertFalse(separators.isMixed());
+
+    FileObject utf16 = _writeToFileObject("\uFEFFline\nline\n", StandardCharsets.UTF_16LE);
+    assertNull(provider.getLineSeparators(utf16));
+  }
+
+  @Test
+  void tellsBinaryFilesFromUndetectableText() throws IOException
+  {
+    CharDetEncodingProvider provider = new CharDetEncodingProvider();
+    byte[] binary = new byte[1000];
+    binary[0] = 'x';
+    FileObject binaryFile = _writeToFileObject(binary);
+    FileObject asciiFile = _writeToFileObject("plain ascii\n", StandardCharsets.US_ASCII);
+
+    assertNull(provider.getDetectedEncoding(binaryFile));
+    assertTrue(provider.isBinary(binaryFile));
+    assertNull(provider.getDetectedEncoding(asciiFile));
+    assertFalse(provider.isBinary(asciiFile));
+  }
+
+  @Test
+  void emptyFilesFollowTheDefaultEncoding() throws Exception
+  {
+    Preferences preferences = _getPreferences();
+    preferences.remove(CharDetEncodingProvider.ENCODING_KEY);
+    CharDetEncodingProvider provider = new CharDetEncodingProvider();
+    FileObject empty = _writeToFileObject(new byte[0]);
+    FileObject chosen = _writeToFileObject(new byte[0]);
+    chosen.setAttribute(StatusLineEncodingProvider.ENCODING_ATTRIBUTE, "UTF-16BE");
+    assertEquals(StandardCharsets.UTF_8, provider.getEncoding(empty));
+
+    preferences.put(CharDetEncodingProvider.ENCODING_KEY, "ISO-8859-1");
+    // the preferences notify their listeners asynchronously
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!StandardCharsets.ISO_8859_1.equals(provider.getEncoding(empty)) && System.currentTimeMillis() < deadline)
+      Thread.sleep(10);
+
+    assertEquals(StandardCharsets.ISO_8859_1, provider.getEncoding(empty));
+    assertEquals("ISO-8859-1", empty.getAttribute(StatusLineEncodingProvider.ENCODING_ATTRIBUTE));
+    assertEquals(StandardCharsets.UTF_16BE, provider.getEncoding(chosen));
+  }
+
+  @ParameterizedTest(name = "{0}")
+  @MethodSource("corpus")
+  void readsOnlyAsMuchAsNecessary(EncodingTestCorpus.CorpusFile pFile) throws IOException
+  {
+    CountingInputStream in = new CountingInputStream(new ByteArrayInputStream(pFile.getContent()));
+    CharDetEncodingProvider.detectEncoding(in);
+    assertTrue(in.getCount() <= pFile.getContent().length);
+    if (pFile.isEarlyExitExpected())
+      assertTrue(in.getCount() <= EARLY_EXIT_READ_LIMIT, pFile + " read " + in.getCount() + " bytes");
+  }
+
+  @Test
+  void detectorsAreRegistered()
+  {
+    List<String> names = EncodingDetectorChain.getDetectors().stream()
+        .map(IEncodingDetector::getName)
+        .collect(Collectors.toList());
+    assertEquals(Arrays.asList(new DeclaredEncodingEngine().getName(), new Utf8BomEngine().getName(), new UniversalDetectorEngine().getName()),
+                 names);
+  }
+
+  /**
+   * Runs the corpus against a single engine. Engines that claim to be exact or highly accurate must not report a wrong encoding, they may
+   * only decline to decide. Statistical engines have to reach the overall accuracy on their own
+   */
+  @ParameterizedTest(name = "{0}")
+  @MethodSource("detectors")
+  void detectorAccuracy(String pName, IEncodingDetector pDetector) throws IOException
+  {
+    List<IEncodingDetector> engine = Collections.singletonList(pDetector);
+    int correct = 0;
+    int wrong = 0;
+    List<EncodingTestCorpus.CorpusFile> files = EncodingTestCorpus.generate();
+    for (EncodingTestCorpus.CorpusFile file : files)
+    {
+      Charset detected = EncodingDetectorChain.detect(new ByteArrayInputStream(file.getContent()), engine).orElse(null);
+      if (file.isDecodedCorrectly(detected))
+        correct++;
+      else if (detected != null)
+        wrong++;
+    }
+    if (pDetector.getAccuracy() != IEncodingDetector.Accuracy.STATISTICAL)
+      assertEquals(0, wrong, pName + " reported wrong encodings");
+    else
+      assertTrue(correct >= MIN_OVERALL_ACCURACY * files.size(), pName + " detected only " + correct + "/" + files.size());
+  }
+
+  private static FileObject _writeToFileObject(EncodingTestCorpus.CorpusFile pFile) throws IOException
+  {
+    return _writeToFileObject(pFile.getContent());
+  }
+
+  private static FileObject _writeToFileObject(String pText, Charset pCharset) throws IOException
+  {
+    return _writeToFileObject(pText.getBytes(pCharset));
+  }
+
+  private static FileObject _writeToFileObject(byte[] pContent) throws IOException
+  {
+    FileObject fileObject = corpusFolder.createData(UUID.randomUUID().toString(), "txt");
+    try (OutputStream outputStream = fileObject.getOutputStream())
+    {
+      outputStream.write(pContent);
+    }
+    return fileObject;
+  }
+
+  private static Preferences _getPreferences()
+  {
+    return NbPreferences.forModule(EncodingOptionsPanel.class);
+  }
+}
@@ -0,0 +1,237 @@
+package de.adito.nbm.encoding;
+
+import com.google.common.io.CountingInputStream;
+import de.adito.nbm.encoding.detection.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.stream.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Throughput benchmarks of the detection, measured against the large files of the {@link EncodingTestCorpus}, and of reading local files. The results depend on the
+ * machine, so the benchmarks are not part of the normal build and run with the "benchmark" profile only:
+ * <pre>
+ * mvn test -Pbenchmark -Dde.adito.nbm.encoding.test.minThroughputMBs=20
+ * </pre>
+ * The floor of the complete chain is dominated by the statistical engine, measure it once on the build machine and pass a value slightly
+ * below the result
+ */
+@Tag("benchmark")
+class DetectionBenchmarkTest
+{
+
+  private static final Logger LOGGER = Logger.getLogger(DetectionBenchmarkTest.class.getName());
+  private static final String MIN_THROUGHPUT_PROPERTY = "de.adito.nbm.encoding.test.minThroughputMBs";
+  private static final double DEFAULT_MIN_THROUGHPUT_MBS = 15;
+  private static final int ROUNDS = 5;
+  /**
+   * reading from the page cache takes only milliseconds per round, so more rounds are needed for a stable median
+   */
+  private static final int READ_ROUNDS = 20;
+  private static final int FILE_SIZE = 64 * 1024 * 1024;
+  private static final int SMALL_FILE_COUNT = 2000;
+
+  static Stream<Arguments> detectors()
+  {
+    return EncodingDetectorChain.getDetectors().stream()
+        .map(pDetector -> Arguments.of(pDetector.getName(), pDetector));
+  }
+
+  @Test
+  void chainThroughput() throws IOException
+  {
+    double throughput = _measureThroughput(EncodingDetectorChain.getDetectors());
+    double minThroughput = Double.parseDouble(System.getProperty(MIN_THROUGHPUT_PROPERTY, String.valueOf(DEFAULT_MIN_THROUGHPUT_MBS)));
+    assertTrue(throughput >= minThroughput, "throughput dropped to " + throughput + " MB/s");
+  }
+
+  /**
+   * The cheap engines run in front of the statistical one for every file, they must never be the bottleneck of the chain
+   */
+  @ParameterizedTest(name = "{0}")
+  @MethodSource("detectors")
+  void engineThroughput(String pName, IEncodingDetector pDetector) throws IOException
+  {
+    double throughput = _measureThroughput(Collections.singletonList(pDetector));
+    if (pDetector.getCost() == IEncodingDetector.Cost.LOW)
+      assertTrue(throughput >= 4 * DEFAULT_MIN_THROUGHPUT_MBS, pName + " examines only " + throughput + " MB/s");
+  }
+
+  /**
+   * Compares reading a local file into the direct buffer of {@link FileChannelInputStream} with reading it through the channel into a heap
+   * array, which the JDK copies through a temporary direct buffer
+   */
+  @Test
+  void channelStreamThroughput(@TempDir Path pTempDir) throws IOException
+  {
+    byte[] contents = new byte[FILE_SIZE];
+    new Random(42).nextBytes(contents);
+    Path path = Files.write(pTempDir.resolve("large.bin"), contents);
+    // detection reads in blocks of the size of the stream buffer, larger reads are split by the stream
+    byte[] readBuffer = new byte[FileChannelInputStream.BUFFER_SIZE];
+
+    double[] throughputs = _compareReadThroughput(() -> {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+      {
+        ByteBuffer wrapper = ByteBuffer.wrap(readBuffer);
+        long total = 0;
+        int read;
+        while ((read = channel.read(wrapper)) >= 0)
+        {
+          total += read;
+          wrapper.clear();
+        }
+        return total;
+      }
+    }, () -> {
+      try (InputStream in = new FileChannelInputStream(path))
+      {
+        long total = 0;
+        int read;
+        while ((read = in.read(readBuffer)) >= 0)
+          total += read;
+        return total;
+      }
+    });
+    double heap = throughputs[0];
+    double direct = throughputs[1];
+    LOGGER.info(String.format("Read throughput: heap buffer %.1f MB/s, direct buffer %.1f MB/s", heap, direct));
+    // both read from the page cache, the direct buffer must at least not be slower than the heap path
+    assertTrue(direct >= 0.8 * heap, "reading through the direct buffer (" + direct + " MB/s) is slower than through a heap buffer (" +
+        heap + " MB/s)");
+  }
+
+  /**
+   * The indexer, bulk queries, the mismatch scan and the batch detector read the first block of many small files, a buffer allocated per file
+   * would dominate there
+   */
+  @Test
+  void smallFilesReadThroughput(@TempDir Path pTempDir) throws IOException
+  {
+    Random random = new Random(42);
+    List<Path> files = new ArrayList<>();
+    for (int i = 0; i < SMALL_FILE_COUNT; i++)
+    {
+      byte[] contents = new byte[512 + random.nextInt(4 * 1024)];
+      random.nextBytes(contents);
+      files.add(Files.write(pTempDir.resolve("small" + i + ".bin"), contents));
+    }
+    byte[] readBuffer = new byte[EncodingDetectorChain.BLOCK_SIZE];
+
+    double[] throughputs = _compareReadThroughput(() -> _readFirstBlocks(files, pPath -> Files.newInputStream(pPath), readBuffer),
+                                                  () -> _readFirstBlocks(files, FileChannelInputStream::new, readBuffer));
+    double heap = throughputs[0];
+    double direct = throughputs[1];
+    LOGGER.info(String.format("First block of %d small files: heap buffer %.1f MB/s, direct buffer %.1f MB/s", SMALL_FILE_COUNT, heap, direct));
+    assertTrue(direct >= 0.8 * heap, "reading small files through the direct buffer (" + direct + " MB/s) is slower than through a heap " +
+        "buffer (" + heap + " MB/s)");
+  }
+
+  /**
+   * @return the amount of bytes read from the first blocks of the files
+   */
+  private static long _readFirstBlocks(List<Path> pFiles, _IOpener pOpener, byte[] pBuffer) throws IOException
+  {
+    long total = 0;
+    for (Path file : pFiles)
+    {
+      try (InputStream in = pOpener.open(file))
+      {
+        total += Math.max(0, in.read(pBuffer));
+      }
+    }
+    return total;
+  }
+
+  /**
+   * The rounds of the readers alternate, so a busy machine slows all of them down and not only the one that happens to run at that time. The
+   * median is used, a single round is too short to be compared on its own
+   *
+   * @return the amount of megabytes read per second by each reader, the median of several rounds
+   */
+  private static double[] _compareReadThroughput(_IReader... pReaders) throws IOException
+  {
+    double[][] throughputs = new double[pReaders.length][READ_ROUNDS];
+    for (_IReader reader : pReaders)
+      reader.read();
+    for (int round = 0; round < READ_ROUNDS; round++)
+    {
+      for (int i = 0; i < pReaders.length; i++)
+      {
+        long start = System.nanoTime();
+        long bytesRead = pReaders[i].read();
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        throughputs[i][round] = bytesRead / (1024d * 1024d) / seconds;
+      }
+    }
+    double[] medians = new double[pReaders.length];
+    for (int i = 0; i < pReaders.length; i++)
+    {
+      Arrays.sort(throughputs[i]);
+      medians[i] = throughputs[i][READ_ROUNDS / 2];
+    }
+    return medians;
+  }
+
+  /**
+   * @return the amount of megabytes examined per second by the given engines, the best of several rounds
+   */
+  private static double _measureThroughput(List<IEncodingDetector> pDetectors) throws IOException
+  {
+    int maxSize = EncodingTestCorpus.FILE_SIZES[EncodingTestCorpus.FILE_SIZES.length - 1];
+    List<byte[]> largeFiles = EncodingTestCorpus.generate().stream()
+        .map(EncodingTestCorpus.CorpusFile::getContent)
+        .filter(pContent -> pContent.length > maxSize / 2)
+        .collect(Collectors.toList());
+    // warm up, so the JIT does not dominate the measurement
+    for (byte[] content : largeFiles)
+      EncodingDetectorChain.detect(new ByteArrayInputStream(content), pDetectors);
+
+    double best = 0;
+    for (int round = 0; round < ROUNDS; round++)
+    {
+      long bytesRead = 0;
+      long start = System.nanoTime();
+      for (byte[] content : largeFiles)
+      {
+        CountingInputStream in = new CountingInputStream(new ByteArrayInputStream(content));
+        EncodingDetectorChain.detect(in, pDetectors);
+        bytesRead += in.getCount();
+      }
+      double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+      best = Math.max(best, bytesRead / (1024d * 1024d) / seconds);
+    }
+    LOGGER.info(String.format("Detection throughput of %s: %.1f MB/s",
+                              pDetectors.stream().map(IEncodingDetector::getName).collect(Collectors.joining(", ")), best));
+    return best;
+  }
+
+  /**
+   * Opens a file for reading
+   */
+  private interface _IOpener
+  {
+    InputStream open(Path pPath) throws IOException;
+  }
+
+  /**
+   * Reads a file completely
+   */
+  private interface _IReader
+  {
+    /**
+     * @return the amount of bytes read
+     */
+    long read() throws IOException;
+  }
+}
@@ -0,0 +1,52 @@
+package de.adito.nbm.encoding;
+
+import de.adito.nbm.encoding.statusline.StatusLineEncodingProvider;
+import org.junit.jupiter.api.Test;
+import org.openide.filesystems.*;
+
+import java.io.*;
+import java.nio.charset.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that files are converted and that invalid files and their attribute are left untouched
+ */
+class EncodingConverterTest
+{
+
+  private static final String TEXT = "Grüße aus Köln\n";
+
+  @Test
+  void convertsFile() throws IOException
+  {
+    FileObject file = _write(TEXT.getBytes(StandardCharsets.ISO_8859_1));
+
+    EncodingConverter.convert(file, StandardCharsets.ISO_8859_1, "UTF-8");
+
+    assertArrayEquals(TEXT.getBytes(StandardCharsets.UTF_8), file.asBytes());
+    assertEquals("UTF-8", file.getAttribute(StatusLineEncodingProvider.ENCODING_ATTRIBUTE));
+  }
+
+  @Test
+  void invalidFileIsLeftUntouched() throws IOException
+  {
+    byte[] latin1 = TEXT.getBytes(StandardCharsets.ISO_8859_1);
+    FileObject file = _write(latin1);
+
+    assertThrows(IOException.class, () -> EncodingConverter.convert(file, StandardCharsets.UTF_8, "windows-1252"));
+
+    assertArrayEquals(latin1, file.asBytes());
+    assertNull(file.getAttribute(StatusLineEncodingProvider.ENCODING_ATTRIBUTE));
+  }
+
+  private static FileObject _write(byte[] pContent) throws IOException
+  {
+    FileObject fileObject = FileUtil.createMemoryFileSystem().getRoot().createData("file.txt");
+    try (OutputStream out = fileObject.getOutputStream())
+    {
+      out.write(pContent);
+    }
+    return fileObject;
+  }
+}
@@ -0,0 +1,222 @@
+package de.adito.nbm.encoding;
+
+import de.adito.nbm.encoding.statusline.StatusLineEncodingProvider;
+import org.jetbrains.annotations.*;
+
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * Generates an in-memory corpus of text files for every charset juniversalchardet claims to support, in several file sizes.
+ * Each charset is paired with sample texts of a script that is actually representable in that charset, the sample is repeated until the
+ * requested size is reached.
+ */
+final class EncodingTestCorpus
+{
+
+  static final int[] FILE_SIZES = {512, 4 * 1024, 64 * 1024, 1024 * 1024};
+
+  private static final String LATIN = "Die Größe der Übertragung hängt von äußeren Faktoren ab. Müller und Schäfer prüfen die Qualität. Ça coûte très " +
+      "cher, à côté du théâtre. El niño está en la montaña.\n";
+  private static final String CYRILLIC = "Съешь же ещё этих мягких французских булок, да выпей чаю. Широкая электрификация южных губерний даст " +
+      "мощный толчок подъёму сельского хозяйства. В чащах юга жил бы цитрус? Да, но фальшивый экземпляр!\n";
+  private static final String GREEK = "Η γρήγορη καφέ αλεπού πηδάει πάνω από τον τεμπέλη σκύλο. Ξεσκεπάζω την ψυχοφθόρα βδελυγμία. Το ελληνικό " +
+      "αλφάβητο χρησιμοποιείται για τη γραφή της ελληνικής γλώσσας.\n";
+  private static final String HEBREW = "דג סקרן שט בים מאוכזב ולפתע מצא חברה. עטלף אבק נס דרך מזגן שהתפוצץ כי חם. השפה העברית היא שפה שמית " +
+      "ממשפחת השפות האפרו-אסייתיות.\n";
+  private static final String JAPANESE = "いろはにほへと ちりぬるを わかよたれそ つねならむ。日本語の文章を正しく判定するためには、十分な量のテキストが必要です。" +
+      "東京は日本の首都であり、多くの人々が住んでいます。カタカナとひらがなと漢字を混ぜて書きます。\n";
+  private static final String CHINESE_SIMPLIFIED = "中华人民共和国是一个位于东亚的国家。汉字是世界上最古老的文字之一，至今已有数千年的历史。" +
+      "我们需要足够多的文本来正确检测编码。北京是中国的首都，上海是最大的城市。\n";
+  private static final String CHINESE_TRADITIONAL = "中華民國是一個位於東亞的國家。漢字是世界上最古老的文字之一，至今已有數千年的歷史。" +
+      "我們需要足夠多的文本來正確檢測編碼。臺北是臺灣最大的城市之一，高雄是重要的港口。\n";
+  private static final String KOREAN = "대한민국은 동아시아의 한반도 남부에 위치한 민주공화국이다. 한글은 세종대왕이 창제한 문자로서 과학적인 문자 체계로 " +
+      "평가받는다. 서울은 대한민국의 수도이며 가장 큰 도시이다.\n";
+
+  /**
+   * sample texts per charset name as returned by {@link StatusLineEncodingProvider#_getSupportedEncodings()}
+   */
+  private static final Map<String, List<String>> SAMPLES = new HashMap<>();
+  /**
+   * byte order marks that are written in front of the content, the unicode charsets without BOM cannot be detected by UCharDet
+   */
+  private static final Map<String, byte[]> BOMS = new HashMap<>();
+
+  static
+  {
+    SAMPLES.put("UTF-8", Arrays.asList(LATIN, CYRILLIC, JAPANESE));
+    SAMPLES.put("UTF-16BE", Collections.singletonList(LATIN));
+    SAMPLES.put("UTF-16LE", Collections.singletonList(LATIN));
+    SAMPLES.put("UTF-32BE", Collections.singletonList(LATIN));
+    SAMPLES.put("UTF-32LE", Collections.singletonList(LATIN));
+    SAMPLES.put("X-ISO-10646-UCS-4-3412", Collections.singletonList(LATIN));
+    SAMPLES.put("X-ISO-10646-UCS-4-2143", Collections.singletonList(LATIN));
+    SAMPLES.put("WINDOWS-1252", Collections.singletonList(LATIN));
+    SAMPLES.put("ISO-8859-5", Collections.singletonList(CYRILLIC));
+    SAMPLES.put("IBM855", Collections.singletonList(CYRILLIC));
+    SAMPLES.put("IBM866", Collections.singletonList(CYRILLIC));
+    SAMPLES.put("KOI8-R", Collections.singletonList(CYRILLIC));
+    SAMPLES.put("MACCYRILLIC", Collections.singletonList(CYRILLIC));
+    SAMPLES.put("WINDOWS-1251", Collections.singletonList(CYRILLIC));
+    SAMPLES.put("ISO-8859-7", Collections.singletonList(GREEK));
+    SAMPLES.put("WINDOWS-1253", Collections.singletonList(GREEK));
+    SAMPLES.put("ISO-8859-8", Collections.singletonList(HEBREW));
+    SAMPLES.put("WINDOWS-1255", Collections.singletonList(HEBREW));
+    SAMPLES.put("SHIFT_JIS", Collections.singletonList(JAPANESE));
+    SAMPLES.put("EUC-JP", Collections.singletonList(JAPANESE));
+    SAMPLES.put("ISO-2022-JP", Collections.singletonList(JAPANESE));
+    SAMPLES.put("GB18030", Collections.singletonList(CHINESE_SIMPLIFIED));
+    SAMPLES.put("HZ-GB-2312", Collections.singletonList(CHINESE_SIMPLIFIED));
+    SAMPLES.put("ISO-2022-CN", Collections.singletonList(CHINESE_SIMPLIFIED));
+    SAMPLES.put("BIG5", Collections.singletonList(CHINESE_TRADITIONAL));
+    SAMPLES.put("EUC-TW", Collections.singletonList(CHINESE_TRADITIONAL));
+    SAMPLES.put("EUC-KR", Collections.singletonList(KOREAN));
+    SAMPLES.put("ISO-2022-KR", Collections.singletonList(KOREAN));
+
+    BOMS.put("UTF-16BE", new byte[]{(byte) 0xFE, (byte) 0xFF});
+    BOMS.put("UTF-16LE", new byte[]{(byte) 0xFF, (byte) 0xFE});
+    BOMS.put("UTF-32BE", new byte[]{0, 0, (byte) 0xFE, (byte) 0xFF});
+    BOMS.put("UTF-32LE", new byte[]{(byte) 0xFF, (byte) 0xFE, 0, 0});
+  }
+
+  private EncodingTestCorpus()
+  {
+  }
+
+  /**
+   * @return names of all charsets the corpus should cover, these are the charsets juniversalchardet declares in its Constants
+   */
+  @NotNull
+  static List<String> getCharsetNames()
+  {
+    return StatusLineEncodingProvider._getSupportedEncodings();
+  }
+
+  /**
+   * @param pCharsetName name of the charset
+   * @return sample texts for the charset, empty list if no sample is registered
+   */
+  @NotNull
+  static List<String> getSamples(@NotNull String pCharsetName)
+  {
+    return SAMPLES.getOrDefault(pCharsetName, Collections.emptyList());
+  }
+
+  /**
+   * @param pCharsetName name of the charset
+   * @return the charset if the running JRE is able to encode text with it, null otherwise
+   */
+  @Nullable
+  static Charset getEncodableCharset(@NotNull String pCharsetName)
+  {
+    try
+    {
+      Charset charset = Charset.forName(pCharsetName);
+      return charset.canEncode() ? charset : null;
+    }
+    catch (IllegalCharsetNameException | UnsupportedCharsetException pE)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * @return all corpus files for all charsets that the JRE can encode, in all sizes of {@link #FILE_SIZES}
+   */
+  @NotNull
+  static List<CorpusFile> generate()
+  {
+    List<CorpusFile> files = new ArrayList<>();
+    for (String charsetName : getCharsetNames())
+    {
+      Charset charset = getEncodableCharset(charsetName);
+      if (charset == null)
+        continue;
+      for (String sample : getSamples(charsetName))
+        for (int size : FILE_SIZES)
+          files.add(new CorpusFile(charsetName, charset, _createContent(sample, charset, BOMS.get(charsetName), size)));
+    }
+    return files;
+  }
+
+  /**
+   * repeats the sample until the encoded content reaches the given size. Only whole samples are appended, so no multi-byte sequence is cut
+   */
+  @NotNull
+  private static byte[] _createContent(@NotNull String pSample, @NotNull Charset pCharset, @Nullable byte[] pBom, int pSize)
+  {
+    byte[] encodedSample = pSample.getBytes(pCharset);
+    byte[] bom = pBom == null ? new byte[0] : pBom;
+    int repetitions = Math.max(1, (pSize - bom.length) / encodedSample.length);
+    byte[] content = new byte[bom.length + repetitions * encodedSample.length];
+    System.arraycopy(bom, 0, content, 0, bom.length);
+    for (int i = 0; i < repetitions; i++)
+      System.arraycopy(encodedSample, 0, content, bom.length + i * encodedSample.length, encodedSample.length);
+    return content;
+  }
+
+  /**
+   * One generated file of the corpus
+   */
+  static final class CorpusFile
+  {
+    private final String charsetName;
+    private final Charset charset;
+    private final byte[] content;
+
+    private CorpusFile(@NotNull String pCharsetName, @NotNull Charset pCharset, @NotNull byte[] pContent)
+    {
+      charsetName = pCharsetName;
+      charset = pCharset;
+      content = pContent;
+    }
+
+    @NotNull
+    String getCharsetName()
+    {
+      return charsetName;
+    }
+
+    @NotNull
+    Charset getCharset()
+    {
+      return charset;
+    }
+
+    @NotNull
+    byte[] getContent()
+    {
+      return content;
+    }
+
+    /**
+     * A detected charset counts as correct if it decodes the content to exactly the same text as the charset the file was written in,
+     * e.g. ISO-8859-8 text that is reported as WINDOWS-1255 is fine as long as no character differs
+     *
+     * @param pDetected detected charset, may be null
+     * @return true if the detected charset yields the original text
+     */
+    boolean isDecodedCorrectly(@Nullable Charset pDetected)
+    {
+      if (pDetected == null)
+        return false;
+      if (pDetected.equals(charset))
+        return true;
+      return new String(content, charset).equals(new String(content, pDetected));
+    }
+
+    /**
+     * @return true if the detector is expected to reach a verdict before reading the whole file (BOM or multi-byte charset)
+     */
+    boolean isEarlyExitExpected()
+    {
+      return BOMS.containsKey(charsetName) || charset.newEncoder().maxBytesPerChar() > 1;
+    }
+
+    @Override
+    public String toString()
+    {
+      return charsetName + " (" + content.length + " bytes)";
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package de.adito.nbm.encoding;
+
+import com.google.common.io.ByteStreams;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Reads files that are larger than the buffer of the stream with mixed reads and skips
+ */
+class FileChannelInputStreamTest
+{
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void readsWholeFile() throws IOException
+  {
+    byte[] contents = _randomBytes(3 * FileChannelInputStream.BUFFER_SIZE + 17);
+    Path path = Files.write(tempDir.resolve("file.bin"), contents);
+
+    try (InputStream in = new FileChannelInputStream(path))
+    {
+      assertEquals(contents[0] & 0xFF, in.read());
+      byte[] rest = ByteStreams.toByteArray(in);
+      assertEquals(contents.length - 1, rest.length);
+      for (int i = 0; i < rest.length; i++)
+        assertEquals(contents[i + 1], rest[i], "byte " + (i + 1));
+      assertEquals(-1, in.read());
+    }
+  }
+
+  @Test
+  void skipsBufferedAndUnreadBytes() throws IOException
+  {
+    byte[] contents = _randomBytes(2 * FileChannelInputStream.BUFFER_SIZE);
+    Path path = Files.write(tempDir.resolve("file.bin"), contents);
+
+    try (InputStream in = new FileChannelInputStream(path))
+    {
+      assertEquals(contents[0] & 0xFF, in.read());
+      long skipped = in.skip(FileChannelInputStream.BUFFER_SIZE + 9);
+      assertEquals(FileChannelInputStream.BUFFER_SIZE + 9, skipped);
+      assertEquals(contents[FileChannelInputStream.BUFFER_SIZE + 10] & 0xFF, in.read());
+      assertEquals(contents.length - FileChannelInputStream.BUFFER_SIZE - 11, in.available());
+      assertEquals(contents.length - FileChannelInputStream.BUFFER_SIZE - 11, in.skip(contents.length));
+      assertEquals(-1, in.read());
+    }
+  }
+
+  @Test
+  void streamsOfTheSameThreadDoNotShareContents() throws IOException
+  {
+    byte[] first = _randomBytes(3 * FileChannelInputStream.BUFFER_SIZE);
+    byte[] second = new byte[first.length];
+    Path firstPath = Files.write(tempDir.resolve("first.bin"), first);
+    Path secondPath = Files.write(tempDir.resolve("second.bin"), second);
+
+    try (InputStream firstIn = new FileChannelInputStream(firstPath);
+         InputStream secondIn = new FileChannelInputStream(secondPath))
+    {
+      ByteArrayOutputStream firstOut = new ByteArrayOutputStream();
+      ByteArrayOutputStream secondOut = new ByteArrayOutputStream();
+      byte[] buffer = new byte[1000];
+      int read;
+      while ((read = firstIn.read(buffer)) > 0)
+      {
+        firstOut.write(buffer, 0, read);
+        read = secondIn.read(buffer);
+        secondOut.write(buffer, 0, Math.max(0, read));
+      }
+      assertArrayEquals(first, firstOut.toByteArray());
+      assertArrayEquals(second, secondOut.toByteArray());
+    }
+  }
+
+  private static byte[] _randomBytes(int pLength)
+  {
+    byte[] bytes = new byte[pLength];
+    new Random(42).nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,101 @@
+package de.adito.nbm.encoding;
+
+import org.junit.jupiter.api.Test;
+import org.openide.filesystems.*;
+import org.openide.util.RequestProcessor;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the order and coalescing of queued re-detections
+ */
+class RedetectionSchedulerTest
+{
+
+  @Test
+  void redetectsByPriority() throws IOException, InterruptedException
+  {
+    FileObject root = FileUtil.createMemoryFileSystem().getRoot();
+    FileObject project = root.createFolder("project");
+    FileObject background = root.createData("background.txt");
+    FileObject projectFile = project.createData("project.txt");
+    FileObject openEditor = project.createData("open.txt");
+    FileObject visibleEditor = project.createData("visible.txt");
+    FileObject neverDetected = project.createData("never.txt");
+
+    // the queues are only processed once the test opens the gate, so their sizes can be checked first
+    RequestProcessor processor = new RequestProcessor(RedetectionSchedulerTest.class.getName(), 1);
+    CountDownLatch gate = new CountDownLatch(1);
+    processor.post(() -> {
+      try
+      {
+        gate.await();
+      }
+      catch (InterruptedException pE)
+      {
+        Thread.currentThread().interrupt();
+      }
+    });
+    List<FileObject> redetected = new CopyOnWriteArrayList<>();
+    CountDownLatch done = new CountDownLatch(4);
+    RedetectionScheduler scheduler = new RedetectionScheduler(pFileObject -> {
+      redetected.add(pFileObject);
+      done.countDown();
+    }, processor);
+    scheduler.setOpenProjectPaths(Collections.singletonList(project.getPath()));
+    for (FileObject fileObject : Arrays.asList(background, projectFile, openEditor, visibleEditor))
+      scheduler.detected(fileObject);
+
+    for (FileObject fileObject : Arrays.asList(background, projectFile, openEditor, visibleEditor, neverDetected, background, openEditor))
+      scheduler.changed(fileObject);
+    // the editors are only known after the files were queued, the queued files have to move up
+    scheduler.setEditorPaths(Collections.singleton(visibleEditor.getPath()),
+                             new HashSet<>(Arrays.asList(visibleEditor.getPath(), openEditor.getPath())));
+
+    assertEquals(Arrays.asList(1, 1, 1, 1), new ArrayList<>(scheduler.getQueueSizes().values()));
+    gate.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList(visibleEditor, openEditor, projectFile, background), redetected);
+  }
+
+  @Test
+  void redetectsRecreatedAndRenamedFiles() throws IOException, InterruptedException
+  {
+    FileObject root = FileUtil.createMemoryFileSystem().getRoot();
+    FileObject recreated = root.createData("recreated.txt");
+    FileObject renamed = root.createData("renamed.txt");
+
+    List<String> redetected = new CopyOnWriteArrayList<>();
+    CountDownLatch done = new CountDownLatch(2);
+    RedetectionScheduler scheduler = new RedetectionScheduler(pFileObject -> {
+      redetected.add(pFileObject.getPath());
+      done.countDown();
+    });
+    scheduler.detected(recreated);
+    scheduler.detected(renamed);
+
+    // a branch switch deletes the file and creates it again
+    scheduler.changed(recreated);
+    scheduler.deleted(recreated);
+    recreated.delete();
+    scheduler.changed(root.createData("recreated.txt"));
+    String oldPath = renamed.getPath();
+    FileLock lock = renamed.lock();
+    try
+    {
+      renamed.rename(lock, "moved", "txt");
+    }
+    finally
+    {
+      lock.releaseLock();
+    }
+    scheduler.renamed(renamed, oldPath);
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(new HashSet<>(Arrays.asList("recreated.txt", "moved.txt")), new HashSet<>(redetected));
+  }
+}
@@ -0,0 +1,103 @@
+package de.adito.nbm.encoding;
+
+import de.adito.nbm.encoding.detection.LineSeparators;
+import de.adito.nbm.encoding.index.*;
+import org.junit.jupiter.api.Test;
+import org.openide.filesystems.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that the encodings of an index are used without detection as long as the files did not change
+ */
+class RepositoryEncodingIndexesTest
+{
+
+  @Test
+  void usesIndexForUnchangedFiles() throws IOException
+  {
+    FileObject repository = FileUtil.createMemoryFileSystem().getRoot().createFolder("repository");
+    byte[] ascii = "plain ascii, detected as nothing\n".getBytes(StandardCharsets.US_ASCII);
+    FileObject file = _write(repository.createFolder("src").createData("File.txt"), ascii);
+    FileObject notIndexed = _write(repository.createData("other.txt"), ascii);
+
+    // the index claims windows-1252, the detection would not find anything in a pure ASCII file
+    EncodingIndexWriter writer = new EncodingIndexWriter();
+    writer.add("src/File.txt", ascii.length, EncodingIndex.hashContents(ascii), Charset.forName("windows-1252"));
+    _writeIndex(repository, writer);
+
+    CharDetEncodingProvider provider = new CharDetEncodingProvider();
+    assertEquals(Charset.forName("windows-1252"), provider.getDetectedEncoding(file));
+    // the line separators are counted while the file is hashed
+    LineSeparators separators = provider.getLineSeparators(file);
+    assertNotNull(separators);
+    assertTrue(separators.isComplete());
+    assertEquals("LF", separators.toString());
+    assertNull(new CharDetEncodingProvider().getDetectedEncoding(notIndexed));
+
+    // same size, different content
+    _write(file, "PLAIN ASCII, DETECTED AS NOTHING\n".getBytes(StandardCharsets.US_ASCII));
+    assertNull(new CharDetEncodingProvider().getDetectedEncoding(file));
+  }
+
+  @Test
+  void changesBehindTheHeadAreNotTrusted() throws IOException
+  {
+    FileObject repository = FileUtil.createMemoryFileSystem().getRoot().createFolder("repository");
+    byte[] ascii = new byte[16 * 1024];
+    Arrays.fill(ascii, (byte) 'a');
+    FileObject file = _write(repository.createData("large.txt"), ascii);
+    EncodingIndexWriter writer = new EncodingIndexWriter();
+    writer.add("large.txt", ascii.length, EncodingIndex.hashContents(ascii), Charset.forName("windows-1252"));
+    _writeIndex(repository, writer);
+    assertEquals(Charset.forName("windows-1252"), new CharDetEncodingProvider().getDetectedEncoding(file));
+
+    // same size, only the end changed
+    ascii[ascii.length - 1] = 'b';
+    _write(file, ascii);
+    assertNull(new CharDetEncodingProvider().getDetectedEncoding(file));
+  }
+
+  @Test
+  void indexOutsideOfTheRepositoryIsIgnored() throws IOException
+  {
+    FileObject root = FileUtil.createMemoryFileSystem().getRoot();
+    FileObject repository = root.createFolder("repository");
+    repository.createFolder(".git");
+    byte[] ascii = "plain ascii, detected as nothing\n".getBytes(StandardCharsets.US_ASCII);
+    FileObject file = _write(repository.createData("File.txt"), ascii);
+    EncodingIndexWriter writer = new EncodingIndexWriter();
+    writer.add("repository/File.txt", ascii.length, EncodingIndex.hashContents(ascii), Charset.forName("windows-1252"));
+    _writeIndex(root, writer);
+
+    assertNull(new CharDetEncodingProvider().getDetectedEncoding(file));
+  }
+
+  private static void _writeIndex(FileObject pFolder, EncodingIndexWriter pWriter) throws IOException
+  {
+    File indexFile = File.createTempFile("encoding", ".index");
+    indexFile.deleteOnExit();
+    pWriter.write(indexFile.toPath());
+    try (InputStream in = new FileInputStream(indexFile))
+    {
+      FileObject index = pFolder.createData(EncodingIndex.FILE_NAME);
+      try (OutputStream out = index.getOutputStream())
+      {
+        FileUtil.copy(in, out);
+      }
+    }
+  }
+
+  private static FileObject _write(FileObject pFileObject, byte[] pContent) throws IOException
+  {
+    try (OutputStream out = pFileObject.getOutputStream())
+    {
+      out.write(pContent);
+    }
+    return pFileObject;
+  }
+}
@@ -0,0 +1,91 @@
+package de.adito.nbm.encoding;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the chunked validation with the UTF-8 decoder of the JRE, small chunk sizes put many multi-byte sequences on chunk boundaries
+ */
+class Utf8ValidatorTest
+{
+
+  private static final String TEXT = "Grüße, Съешь же ещё, 日本語のテキスト, 😀🎉 and some ascii\n";
+
+  @TempDir
+  Path tempDir;
+
+  @ParameterizedTest(name = "chunk size {0}")
+  @ValueSource(ints = {3, 5, 7, 64, 4096})
+  void validTextIsValid(int pChunkSize) throws IOException
+  {
+    byte[] bytes = _repeat(TEXT, 50).getBytes(StandardCharsets.UTF_8);
+    assertEquals(Utf8Validator.VALID, Utf8Validator.findFirstInvalidOffset(_write(bytes), pChunkSize));
+    assertEquals(Utf8Validator.VALID, Utf8Validator.findFirstInvalidOffset(bytes));
+  }
+
+  @ParameterizedTest(name = "chunk size {0}")
+  @ValueSource(ints = {3, 5, 7, 64, 4096})
+  void reportsFirstInvalidOffset(int pChunkSize) throws IOException
+  {
+    Random random = new Random(pChunkSize);
+    byte[] valid = _repeat(TEXT, 4).getBytes(StandardCharsets.UTF_8);
+    for (int i = 0; i < 50; i++)
+    {
+      byte[] bytes = valid.clone();
+      for (int j = random.nextInt(3) + 1; j > 0; j--)
+        bytes[random.nextInt(bytes.length)] = (byte) random.nextInt(256);
+      long expected = _getFirstMalformedOffset(bytes);
+      assertEquals(expected, Utf8Validator.findFirstInvalidOffset(_write(bytes), pChunkSize));
+      assertEquals(expected, Utf8Validator.findFirstInvalidOffset(bytes));
+    }
+  }
+
+  @Test
+  void rejectsTruncatedSequenceAtEnd() throws IOException
+  {
+    byte[] text = "abc€".getBytes(StandardCharsets.UTF_8);
+    byte[] truncated = new byte[text.length - 1];
+    System.arraycopy(text, 0, truncated, 0, truncated.length);
+    assertEquals(3, Utf8Validator.findFirstInvalidOffset(_write(truncated), 2));
+  }
+
+  @Test
+  void emptyFileIsValid() throws IOException
+  {
+    assertEquals(Utf8Validator.VALID, Utf8Validator.findFirstInvalidOffset(_write(new byte[0])));
+  }
+
+  private Path _write(byte[] pBytes) throws IOException
+  {
+    return Files.write(Files.createTempFile(tempDir, "utf8", ".txt"), pBytes);
+  }
+
+  private static long _getFirstMalformedOffset(byte[] pBytes)
+  {
+    ByteBuffer in = ByteBuffer.wrap(pBytes);
+    CharBuffer out = CharBuffer.allocate(pBytes.length);
+    CoderResult result = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT)
+        .decode(in, out, true);
+    return result.isError() ? in.position() : Utf8Validator.VALID;
+  }
+
+  private static String _repeat(String pText, int pCount)
+  {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < pCount; i++)
+      builder.append(pText);
+    return builder.toString();
+  }
+}
@@ -0,0 +1,119 @@
+package de.adito.nbm.encoding.cli;
+
+import de.adito.nbm.encoding.index.EncodingIndex;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the batch detector on a small directory tree
+ */
+class BatchDetectorTest
+{
+
+  private static final String CYRILLIC = "Съешь же ещё этих мягких французских булок, да выпей чаю. Широкая электрификация южных губерний даст " +
+      "мощный толчок подъёму сельского хозяйства.\n";
+
+  @TempDir
+  Path root;
+
+  @Test
+  void writesCsvReport() throws IOException
+  {
+    _createTree();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    int exitCode = BatchDetector.run(new String[]{"--format", "csv", root.toString()}, new PrintStream(out, true, "UTF-8"), _nullStream());
+
+    assertEquals(BatchDetector.EXIT_OK, exitCode);
+    String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\\R");
+    assertEquals(4, lines.length);
+    assertEquals("path,charset,bytesExamined,error", lines[0]);
+    assertTrue(lines[1].startsWith("ascii.txt,,"), lines[1]);
+    assertTrue(lines[2].startsWith("sub/koi8.txt,KOI8-R,"), lines[2]);
+    assertTrue(lines[3].startsWith("utf8.txt,UTF-8,"), lines[3]);
+  }
+
+  @Test
+  void writesJsonReport() throws IOException
+  {
+    _createTree();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    BatchDetector.run(new String[]{root.toString()}, new PrintStream(out, true, "UTF-8"), _nullStream());
+
+    String report = new String(out.toByteArray(), StandardCharsets.UTF_8);
+    assertTrue(report.contains("{\"path\": \"sub/koi8.txt\", \"charset\": \"KOI8-R\", \"bytesExamined\": "), report);
+    assertTrue(report.contains("{\"path\": \"ascii.txt\", \"charset\": null, "), report);
+    assertFalse(report.contains(".hidden"), report);
+  }
+
+  @Test
+  void failsOnUnexpectedEncoding() throws IOException
+  {
+    _createTree();
+    assertEquals(BatchDetector.EXIT_UNEXPECTED_ENCODING, BatchDetector.run(new String[]{"--expect", "UTF-8", root.toString()},
+                                                                          _nullStream(), _nullStream()));
+    assertEquals(BatchDetector.EXIT_OK, BatchDetector.run(new String[]{"--expect", "UTF-8", root.resolve("utf8.txt").toString()},
+                                                          _nullStream(), _nullStream()));
+  }
+
+  @Test
+  void reportsSingleFileByItsName() throws IOException
+  {
+    _createTree();
+    Path relativeFile = Paths.get("").toAbsolutePath().relativize(root.resolve("sub").resolve("koi8.txt"));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    BatchDetector.run(new String[]{"--format", "csv", relativeFile.toString()}, new PrintStream(out, true, "UTF-8"), _nullStream());
+
+    String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\\R");
+    assertEquals(2, lines.length);
+    assertTrue(lines[1].startsWith("koi8.txt,KOI8-R,"), lines[1]);
+  }
+
+  @Test
+  void writesIndex() throws IOException
+  {
+    _createTree();
+    assertEquals(BatchDetector.EXIT_OK, BatchDetector.run(new String[]{"--write-index", root.toString()}, _nullStream(), _nullStream()));
+
+    EncodingIndex index = EncodingIndex.read(root.resolve(EncodingIndex.FILE_NAME));
+    assertEquals(3, index.size());
+    byte[] koi8 = Files.readAllBytes(root.resolve("sub/koi8.txt"));
+    EncodingIndex.Entry entry = index.find("sub/koi8.txt", koi8.length);
+    assertNotNull(entry);
+    assertTrue(entry.matches(EncodingIndex.hashContents(koi8)));
+    assertEquals(Optional.of(Charset.forName("KOI8-R")), entry.getEncoding());
+    assertNull(index.find(".hidden/koi8.txt", koi8.length));
+  }
+
+  @Test
+  void rejectsInvalidArguments()
+  {
+    assertEquals(BatchDetector.EXIT_USAGE, BatchDetector.run(new String[0], _nullStream(), _nullStream()));
+    assertEquals(BatchDetector.EXIT_USAGE, BatchDetector.run(new String[]{"--expect", "no-such-charset", "."}, _nullStream(), _nullStream()));
+    assertEquals(BatchDetector.EXIT_USAGE, BatchDetector.run(new String[]{"--format"}, _nullStream(), _nullStream()));
+  }
+
+  private void _createTree() throws IOException
+  {
+    Files.createDirectories(root.resolve("sub"));
+    Files.createDirectories(root.resolve(".hidden"));
+    Files.write(root.resolve("utf8.txt"), CYRILLIC.getBytes(StandardCharsets.UTF_8));
+    Files.write(root.resolve("ascii.txt"), "plain ascii\n".getBytes(StandardCharsets.US_ASCII));
+    Files.write(root.resolve("sub/koi8.txt"), CYRILLIC.getBytes(Charset.forName("KOI8-R")));
+    Files.write(root.resolve(".hidden/koi8.txt"), CYRILLIC.getBytes(Charset.forName("KOI8-R")));
+  }
+
+  private static PrintStream _nullStream()
+  {
+    return new PrintStream(new ByteArrayOutputStream());
+  }
+}
@@ -0,0 +1,89 @@
+package de.adito.nbm.encoding.detection;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the recognition of binary files and that they never reach the detection engines
+ */
+class BinaryContentFilterTest
+{
+
+  @Test
+  void recognizesBinaryExtensions()
+  {
+    long before = BinaryContentFilter.getRejectedByName();
+    assertTrue(BinaryContentFilter.isBinaryName("library.JAR"));
+    assertTrue(BinaryContentFilter.isBinaryName("Foo.class"));
+    assertFalse(BinaryContentFilter.isBinaryName("Foo.java"));
+    assertFalse(BinaryContentFilter.isBinaryName("Makefile"));
+    assertEquals(before + 2, BinaryContentFilter.getRejectedByName());
+  }
+
+  @Test
+  void recognizesBinaryContent()
+  {
+    assertTrue(_isBinary(new byte[]{(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, 0, 0, 52}));
+    assertTrue(_isBinary(new byte[]{'P', 'K', 3, 4, 20, 0}));
+    assertTrue(_isBinary("some text\0with a NUL".getBytes(StandardCharsets.US_ASCII)));
+    assertFalse(_isBinary("PK is not enough".getBytes(StandardCharsets.US_ASCII)));
+    assertFalse(_isBinary("\uFEFFtext with a BOM".getBytes(StandardCharsets.UTF_16LE)));
+    assertFalse(_isBinary("Grüße".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  void binaryContentIsNotFedToEngines() throws IOException
+  {
+    List<String> fed = new ArrayList<>();
+    IEncodingDetector detector = new Utf8BomEngine()
+    {
+      @Override
+      public IDetectionSession createSession()
+      {
+        IDetectionSession session = super.createSession();
+        return new IDetectionSession()
+        {
+          @Override
+          public void feed(byte[] pBuffer, int pLength)
+          {
+            fed.add(new String(pBuffer, 0, pLength, StandardCharsets.ISO_8859_1));
+            session.feed(pBuffer, pLength);
+          }
+
+          @Override
+          public boolean isDone()
+          {
+            return session.isDone();
+          }
+
+          @Override
+          public Optional<Charset> finish()
+          {
+            return session.finish();
+          }
+        };
+      }
+    };
+    long before = BinaryContentFilter.getRejectedByContent();
+    byte[] binary = new byte[10000];
+    binary[0] = 'x';
+
+    EncodingDetectorChain.Result result = EncodingDetectorChain.analyze(new ByteArrayInputStream(binary), Collections.singletonList(detector));
+
+    assertTrue(result.isBinary());
+    assertFalse(result.getEncoding().isPresent());
+
+    assertTrue(fed.isEmpty());
+    assertEquals(before + 1, BinaryContentFilter.getRejectedByContent());
+  }
+
+  private static boolean _isBinary(byte[] pContent)
+  {
+    return BinaryContentFilter.isBinaryContent(pContent, pContent.length);
+  }
+}
@@ -0,0 +1,94 @@
+package de.adito.nbm.encoding.detection;
+
+import com.google.common.io.CountingInputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the recognition of in-band encoding declarations and that they win over the statistical detection
+ */
+class DeclaredEncodingEngineTest
+{
+
+  @Test
+  void readsDeclarations() throws IOException
+  {
+    assertEquals(Optional.of(StandardCharsets.ISO_8859_1), _sniff("<?xml version=\"1.0\" encoding='ISO-8859-1'?>\n<a/>"));
+    assertEquals(Optional.of(Charset.forName("windows-1252")),
+                 _sniff("<!DOCTYPE html>\n<html><head><meta charset=\"windows-1252\"><title>x</title></head></html>"));
+    assertEquals(Optional.of(StandardCharsets.UTF_8),
+                 _sniff("<html><head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=utf-8\"></head></html>"));
+    assertEquals(Optional.of(StandardCharsets.ISO_8859_1), _sniff("#!/usr/bin/env python\n# -*- coding: latin-1 -*-\nprint('x')\n"));
+    assertEquals(Optional.of(StandardCharsets.UTF_8), _sniff("# encoding: utf_8\nputs 'x'\n"));
+  }
+
+  @Test
+  void ignoresMissingOrInvalidDeclarations() throws IOException
+  {
+    assertEquals(Optional.empty(), _sniff("<?xml version=\"1.0\"?>\n<a/>"));
+    assertEquals(Optional.empty(), _sniff("<?xml version=\"1.0\" encoding=\"UTF-16\"?>\n<a/>"));
+    assertEquals(Optional.empty(), _sniff("<?xml version=\"1.0\" encoding=\"no-such-charset\"?>\n<a/>"));
+    assertEquals(Optional.empty(), _sniff("#!/bin/sh\n\n# coding: latin-1\n"));
+    assertEquals(Optional.empty(), _sniff("class A { String s = \"<meta charset=latin1>\"; }"));
+    assertEquals(Optional.empty(), _sniff("<html><head></head><body><meta charset=\"latin1\"></body></html>"));
+  }
+
+  @Test
+  void declarationSplitBetweenBlocks()
+  {
+    byte[] bytes = "<html><head><meta charset=\"windows-1252\"></head>".getBytes(StandardCharsets.US_ASCII);
+    for (int blockSize = 1; blockSize < bytes.length; blockSize++)
+    {
+      IDetectionSession session = new DeclaredEncodingEngine().createSession();
+      for (int offset = 0; offset < bytes.length && !session.isDone(); offset += blockSize)
+      {
+        byte[] block = Arrays.copyOfRange(bytes, offset, Math.min(bytes.length, offset + blockSize));
+        session.feed(block, block.length);
+      }
+      assertEquals(Optional.of(Charset.forName("windows-1252")), session.finish(), "block size " + blockSize);
+    }
+  }
+
+  @Test
+  void declarationWinsOverStatistics() throws IOException
+  {
+    StringBuilder text = new StringBuilder("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n<texts>\n");
+    for (int i = 0; i < 500; i++)
+      text.append("  <text>Grüße aus Köln, schöne Äpfel</text>\n");
+    byte[] bytes = text.append("</texts>\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+    CountingInputStream in = new CountingInputStream(new ByteArrayInputStream(bytes));
+
+    assertEquals(Optional.of(StandardCharsets.ISO_8859_1), EncodingDetectorChain.detect(in));
+    // the declaration is read from the first block, the statistical engine does not get to see the rest of the file
+    assertTrue(in.getCount() < bytes.length, "read " + in.getCount() + " bytes");
+  }
+
+  @Test
+  void contradictedDeclarationIsIgnored() throws IOException
+  {
+    String text = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<text>Grüße aus Köln</text>\n";
+    assertEquals(Optional.of(StandardCharsets.UTF_8), _sniff(text, StandardCharsets.UTF_8));
+    // saved as ISO-8859-1 despite the declaration
+    assertEquals(Optional.empty(), _sniff(text, StandardCharsets.ISO_8859_1));
+    // a multi-byte sequence cut off by the end of the examined bytes is not a contradiction
+    byte[] cutOff = Arrays.copyOf(text.getBytes(StandardCharsets.UTF_8), text.indexOf('ü') + 1);
+    assertTrue(DeclaredEncodingEngine.isDecodable(StandardCharsets.UTF_8, cutOff, cutOff.length));
+  }
+
+  private static Optional<Charset> _sniff(String pText, Charset pCharset) throws IOException
+  {
+    return EncodingDetectorChain.detect(new ByteArrayInputStream(pText.getBytes(pCharset)),
+                                        Collections.singletonList(new DeclaredEncodingEngine()));
+  }
+
+  private static Optional<Charset> _sniff(String pText) throws IOException
+  {
+    return EncodingDetectorChain.detect(new ByteArrayInputStream(pText.getBytes(StandardCharsets.ISO_8859_1)),
+                                        Collections.singletonList(new DeclaredEncodingEngine()));
+  }
+}
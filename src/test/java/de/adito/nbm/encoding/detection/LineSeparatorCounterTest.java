@@ -0,0 +1,105 @@
+package de.adito.nbm.encoding.detection;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the counting of line separators, including a CRLF that is split between two reads
+ */
+class LineSeparatorCounterTest
+{
+
+  @Test
+  void countsSeparators() throws IOException
+  {
+    LineSeparators separators = _count("a\r\nb\r\nc\nd\re\r\r\n", 3);
+    assertNotNull(separators);
+    assertEquals(3, separators.getCrlf());
+    assertEquals(1, separators.getLf());
+    assertEquals(2, separators.getCr());
+    assertTrue(separators.isMixed());
+    assertEquals("\r\n", separators.getDominant());
+  }
+
+  @Test
+  void crlfSplitBetweenReads() throws IOException
+  {
+    for (int blockSize = 1; blockSize < 6; blockSize++)
+    {
+      LineSeparators separators = _count("ab\r\ncd\r\n", blockSize);
+      assertNotNull(separators);
+      assertEquals(2, separators.getCrlf(), "block size " + blockSize);
+      assertFalse(separators.isMixed());
+      assertEquals("CRLF", separators.toString());
+    }
+  }
+
+  @Test
+  void trailingCrAndNoSeparators() throws IOException
+  {
+    LineSeparators separators = _count("a\r", 4096);
+    assertNotNull(separators);
+    assertEquals("\r", separators.getDominant());
+    separators = _count("no separator", 4096);
+    assertNotNull(separators);
+    assertNull(separators.getDominant());
+  }
+
+  @Test
+  void tellsSampleFromWholeStream() throws IOException
+  {
+    LineSeparators complete = _count("a\nb\n", 4096);
+    assertNotNull(complete);
+    assertTrue(complete.isComplete());
+    assertEquals(4, complete.getExaminedBytes());
+
+    LineSeparatorCounter counter = new LineSeparatorCounter(new ByteArrayInputStream("a\nb\nc\n".getBytes(StandardCharsets.ISO_8859_1)));
+    assertEquals(4, counter.read(new byte[4], 0, 4));
+    LineSeparators sample = counter.getLineSeparators();
+    assertNotNull(sample);
+    assertFalse(sample.isComplete());
+    assertEquals(4, sample.getExaminedBytes());
+    assertEquals(2, sample.getLf());
+  }
+
+  @Test
+  void crAtEndOfSampleIsNotCounted() throws IOException
+  {
+    byte[] bytes = "a\nb\r\nc\r".getBytes(StandardCharsets.ISO_8859_1);
+    LineSeparatorCounter counter = new LineSeparatorCounter(new ByteArrayInputStream(bytes), bytes.length);
+    assertEquals(4, counter.read(new byte[4], 0, 4));
+    LineSeparators sample = counter.getLineSeparators();
+    assertNotNull(sample);
+    assertFalse(sample.isComplete());
+    assertEquals(0, sample.getCr());
+    assertEquals("LF", sample.toString());
+
+    assertEquals(3, counter.read(new byte[4], 0, 4));
+    LineSeparators complete = counter.getLineSeparators();
+    assertNotNull(complete);
+    assertTrue(complete.isComplete());
+    assertEquals(1, complete.getCrlf());
+    assertEquals(1, complete.getCr());
+  }
+
+  @Test
+  void nulDropsCounts() throws IOException
+  {
+    assertNull(_count("a\nb\0", 4096));
+  }
+
+  private static LineSeparators _count(String pText, int pBlockSize) throws IOException
+  {
+    LineSeparatorCounter counter = new LineSeparatorCounter(new ByteArrayInputStream(pText.getBytes(StandardCharsets.ISO_8859_1)));
+    byte[] buffer = new byte[pBlockSize];
+    while (counter.read(buffer, 0, buffer.length) >= 0)
+    {
+      // just count
+    }
+    return counter.getLineSeparators();
+  }
+}
@@ -0,0 +1,118 @@
+package de.adito.nbm.encoding.editorconfig;
+
+import org.junit.jupiter.api.*;
+import org.openide.filesystems.*;
+
+import java.io.*;
+import java.nio.charset.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the glob matching and the lookup of .editorconfig files in the parent directories
+ */
+class EditorConfigEncodingResolverTest
+{
+
+  private FileObject root;
+  private EditorConfigEncodingResolver resolver;
+
+  @BeforeEach
+  void setUp() throws IOException
+  {
+    root = FileUtil.createMemoryFileSystem().getRoot().createFolder("project");
+    resolver = new EditorConfigEncodingResolver();
+  }
+
+  @Test
+  void globs()
+  {
+    assertTrue(GlobPattern.compile("*.js").matches("a/b/c.js"));
+    assertFalse(GlobPattern.compile("*.js").matches("a/b/c.json"));
+    assertTrue(GlobPattern.compile("lib/**.js").matches("lib/a/b.js"));
+    assertFalse(GlobPattern.compile("lib/*.js").matches("lib/a/b.js"));
+    assertTrue(GlobPattern.compile("/lib/*.js").matches("lib/b.js"));
+    assertFalse(GlobPattern.compile("/lib/*.js").matches("src/lib/b.js"));
+    assertTrue(GlobPattern.compile("*.{js,py}").matches("x.py"));
+    assertFalse(GlobPattern.compile("*.{js,py}").matches("x.java"));
+    assertTrue(GlobPattern.compile("file{1..3}.txt").matches("file2.txt"));
+    assertFalse(GlobPattern.compile("file{1..3}.txt").matches("file4.txt"));
+    assertTrue(GlobPattern.compile("[!a]?.txt").matches("bc.txt"));
+    assertFalse(GlobPattern.compile("[!a]?.txt").matches("ac.txt"));
+    assertTrue(GlobPattern.compile("{single}.txt").matches("{single}.txt"));
+    assertTrue(GlobPattern.compile("*").matches("any/file.bin"));
+  }
+
+  @Test
+  void nearestConfigWins() throws IOException
+  {
+    _write(root, ".editorconfig", "root = true\n[*]\ncharset = utf-8\n[*.properties]\ncharset = latin1\n");
+    FileObject legacy = root.createFolder("legacy");
+    _write(legacy, ".editorconfig", "[*]\ncharset = utf-16le\n[*.md]\ncharset = unset\n");
+
+    assertEquals(StandardCharsets.UTF_8, resolver.getEncoding(_write(root, "a.txt", "")));
+    assertEquals(StandardCharsets.ISO_8859_1, resolver.getEncoding(_write(root, "a.properties", "")));
+    assertEquals(StandardCharsets.UTF_16LE, resolver.getEncoding(_write(legacy, "b.properties", "")));
+    assertNull(resolver.getEncoding(_write(legacy, "readme.md", "")));
+  }
+
+  @Test
+  void rootStopsLookup() throws IOException
+  {
+    _write(root, ".editorconfig", "[*]\ncharset = latin1\n");
+    FileObject module = root.createFolder("module");
+    _write(module, ".editorconfig", "# no charset here\nroot = true\n[*.java]\nindent_size = 2\n");
+
+    assertNull(resolver.getEncoding(_write(module, "A.java", "")));
+    assertEquals(StandardCharsets.ISO_8859_1, resolver.getEncoding(_write(root, "B.java", "")));
+  }
+
+  @Test
+  void repositoryRootStopsLookup() throws IOException
+  {
+    _write(root, ".editorconfig", "[*]\ncharset = latin1\n");
+    FileObject repository = root.createFolder("repository");
+    repository.createFolder(".git");
+
+    assertNull(resolver.getEncoding(_write(repository.createFolder("src"), "A.java", "")));
+    assertEquals(StandardCharsets.ISO_8859_1, resolver.getEncoding(_write(root, "B.java", "")));
+  }
+
+  @Test
+  void foldersOfOtherFileSystemsAreNotShared() throws IOException
+  {
+    _write(root, ".editorconfig", "[*]\ncharset = latin1\n");
+    FileObject otherRoot = FileUtil.createMemoryFileSystem().getRoot().createFolder("project");
+
+    assertEquals(StandardCharsets.ISO_8859_1, resolver.getEncoding(_write(root, "A.java", "")));
+    assertNull(resolver.getEncoding(_write(otherRoot, "A.java", "")));
+  }
+
+  @Test
+  void configChangesInvalidateCache() throws IOException
+  {
+    FileObject file = _write(root, "a.txt", "");
+    assertNull(resolver.getEncoding(file));
+
+    FileObject config = _write(root, ".editorconfig", "[*.txt]\ncharset = utf-16be\n");
+    assertEquals(StandardCharsets.UTF_16BE, resolver.getEncoding(file));
+
+    _write(root, ".editorconfig", "[*.txt]\ncharset = latin1\n");
+    assertEquals(StandardCharsets.ISO_8859_1, resolver.getEncoding(file));
+
+    config.delete();
+    assertNull(resolver.getEncoding(file));
+  }
+
+  private static FileObject _write(FileObject pFolder, String pName, String pContent) throws IOException
+  {
+    FileObject file = pFolder.getFileObject(pName);
+    if (file == null)
+      file = pFolder.createData(pName);
+    try (OutputStream outputStream = file.getOutputStream())
+    {
+      outputStream.write(pContent.getBytes(StandardCharsets.UTF_8));
+    }
+    return file;
+  }
+}
@@ -0,0 +1,67 @@
+package de.adito.nbm.encoding.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Writes and reads an index and checks that changed files are not trusted
+ */
+class EncodingIndexTest
+{
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void findsWrittenEntries() throws IOException
+  {
+    EncodingIndexWriter writer = new EncodingIndexWriter();
+    for (int i = 0; i < 1000; i++)
+      writer.add("src/File" + i + ".java", i, i * 31L, i % 2 == 0 ? StandardCharsets.UTF_8 : Charset.forName("windows-1252"));
+    writer.add("ascii.txt", 42, 7, null);
+    Path indexFile = tempDir.resolve(EncodingIndex.FILE_NAME);
+    writer.write(indexFile);
+
+    EncodingIndex index = EncodingIndex.read(indexFile);
+    assertEquals(1001, index.size());
+    for (int i = 0; i < 1000; i++)
+    {
+      EncodingIndex.Entry entry = index.find("src/File" + i + ".java", i);
+      assertNotNull(entry, "entry " + i);
+      assertTrue(entry.matches(i * 31L));
+      assertEquals(Optional.of(i % 2 == 0 ? StandardCharsets.UTF_8 : Charset.forName("windows-1252")), entry.getEncoding());
+    }
+    EncodingIndex.Entry ascii = index.find("ascii.txt", 42);
+    assertNotNull(ascii);
+    assertEquals(Optional.empty(), ascii.getEncoding());
+    assertFalse(ascii.matches(8));
+    assertNull(index.find("ascii.txt", 43));
+    assertNull(index.find("missing.txt", 42));
+  }
+
+  @Test
+  void hashesWholeContents() throws IOException
+  {
+    byte[] content = new byte[64 * 1024 + 5];
+    new Random(42).nextBytes(content);
+    long hash = EncodingIndex.hashContents(content);
+    assertEquals(hash, EncodingIndex.hashContents(content.clone()));
+    assertEquals(hash, EncodingIndex.hashContents(new ByteArrayInputStream(content)));
+    content[content.length - 1] = 1;
+    assertNotEquals(hash, EncodingIndex.hashContents(content));
+  }
+
+  @Test
+  void rejectsInvalidFiles()
+  {
+    assertThrows(IOException.class, () -> EncodingIndex.read("no index".getBytes(StandardCharsets.US_ASCII)));
+    assertThrows(IOException.class, () -> EncodingIndex.read(Arrays.copyOf(EncodingIndex.MAGIC, EncodingIndex.MAGIC.length + 6)));
+  }
+}
@@ -0,0 +1,70 @@
+package de.adito.nbm.encoding.scan;
+
+import de.adito.nbm.encoding.CharDetEncodingProvider;
+import de.adito.nbm.encoding.statusline.StatusLineEncodingProvider;
+import org.junit.jupiter.api.Test;
+import org.openide.filesystems.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the comparison of file attribute, detected encoding and configured encoding
+ */
+class EncodingMismatchScannerTest
+{
+
+  private static final String CYRILLIC = "Съешь же ещё этих мягких французских булок, да выпей чаю. Широкая электрификация южных губерний даст " +
+      "мощный толчок подъёму сельского хозяйства.\n";
+
+  @Test
+  void findsMismatches() throws IOException
+  {
+    FileObject root = FileUtil.createMemoryFileSystem().getRoot().createFolder("project");
+    FileObject sub = root.createFolder("sub");
+    FileObject consistent = _write(root, "consistent.txt", CYRILLIC, StandardCharsets.UTF_8);
+    consistent.setAttribute(StatusLineEncodingProvider.ENCODING_ATTRIBUTE, "UTF-8");
+    FileObject wrongAttribute = _write(sub, "attribute.txt", CYRILLIC, StandardCharsets.UTF_8);
+    wrongAttribute.setAttribute(StatusLineEncodingProvider.ENCODING_ATTRIBUTE, "windows-1252");
+    _write(sub, "koi8.txt", CYRILLIC, Charset.forName("KOI8-R"));
+    _write(root, "ascii.txt", "plain ascii is not detected as anything\n", StandardCharsets.US_ASCII);
+    _write(root, ".editorconfig", "[koi8-declared.txt]\ncharset = koi8-r\n", StandardCharsets.US_ASCII);
+    _write(root, "koi8-declared.txt", CYRILLIC, Charset.forName("KOI8-R"));
+
+    EncodingMismatchScanner scanner = new EncodingMismatchScanner(new CharDetEncodingProvider());
+    List<FileObject> files = scanner.collectFiles(root);
+    assertEquals(6, files.size());
+    List<EncodingMismatch> mismatches = scanner.scan(root, files, pChecked -> {});
+
+    assertEquals(2, mismatches.size());
+    assertEquals("sub/attribute.txt", mismatches.get(0).getRelativePath());
+    assertEquals(EncodingMismatch.Type.ATTRIBUTE_DIFFERS, mismatches.get(0).getType());
+    assertEquals("sub/koi8.txt", mismatches.get(1).getRelativePath());
+    assertEquals(EncodingMismatch.Type.CONFIGURED_DIFFERS, mismatches.get(1).getType());
+    assertEquals(Charset.forName("KOI8-R"), mismatches.get(1).getDetectedEncoding());
+  }
+
+  @Test
+  void cancelledScanReturnsNothing() throws IOException
+  {
+    FileObject root = FileUtil.createMemoryFileSystem().getRoot();
+    _write(root, "koi8.txt", CYRILLIC, Charset.forName("KOI8-R"));
+    EncodingMismatchScanner scanner = new EncodingMismatchScanner(new CharDetEncodingProvider());
+    List<FileObject> files = scanner.collectFiles(root);
+    scanner.cancel();
+    assertTrue(scanner.scan(root, files, pChecked -> {}).isEmpty());
+  }
+
+  private static FileObject _write(FileObject pFolder, String pName, String pContent, Charset pCharset) throws IOException
+  {
+    FileObject file = pFolder.createData(pName);
+    try (OutputStream outputStream = file.getOutputStream())
+    {
+      outputStream.write(pContent.getBytes(pCharset));
+    }
+    return file;
+  }
+}